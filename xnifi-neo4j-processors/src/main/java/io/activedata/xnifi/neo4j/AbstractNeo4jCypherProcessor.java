@@ -1,29 +1,50 @@
 package io.activedata.xnifi.neo4j;
 
 import io.activedata.xnifi.core.AbstractXNifiProcessor;
-import org.apache.commons.lang3.StringUtils;
+import io.activedata.xnifi.neo4j.services.Neo4jConnectionService;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Config;
 import org.neo4j.driver.v1.Driver;
-import org.neo4j.driver.v1.GraphDatabase;
-
-import java.io.File;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 抽象的NEO4J Cypher查询处理类
+ * <p>
+ * 驱动在调度开始时创建、停止时关闭，所有触发和并发任务共用同一个驱动及其连接池；
+ * 指定了NEO4J连接服务时直接使用服务持有的驱动，此时处理器上的连接属性不起作用
  */
 public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcessor {
 
+    public static final PropertyDescriptor NEO4J_CONNECTION_SERVICE = new PropertyDescriptor.Builder()
+            .name("neo4j-connection-service")
+            .displayName("NEO4J连接服务")
+            .description("请指定NEO4J连接服务，多个处理器可以共用同一个服务的连接池；指定后忽略处理器上的连接属性。")
+            .required(false)
+            .identifiesControllerService(Neo4jConnectionService.class)
+            .build();
+
     public static final PropertyDescriptor QUERY = new PropertyDescriptor.Builder()
             .name("neo4j-query")
             .displayName("Cypher查询")
@@ -46,8 +67,8 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
     public static final PropertyDescriptor USERNAME = new PropertyDescriptor.Builder()
             .name("neo4j-username")
             .displayName("用户名")
-            .description("请指定NEO4J连接用户名。")
-            .required(true)
+            .description("请指定NEO4J连接用户名，未指定NEO4J连接服务时必须指定。")
+            .required(false)
             .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
             .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
             .build();
@@ -55,8 +76,8 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
     public static final PropertyDescriptor PASSWORD = new PropertyDescriptor.Builder()
             .name("neo4j-password")
             .displayName("密码")
-            .description("请指定NEO4J连接密码。")
-            .required(true)
+            .description("请指定NEO4J连接密码，未指定NEO4J连接服务时必须指定。")
+            .required(false)
             .sensitive(true)
             .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
             .build();
@@ -77,7 +98,7 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
     public static final PropertyDescriptor CONNECTION_TIMEOUT = new PropertyDescriptor.Builder()
             .name("neo4j-max-connection-time-out")
             .displayName("最大连接超时时间")
-            .description("NEO4J连接的最大超时时间，默认为5秒。")
+            .description("建立NEO4J连接的最大超时时间，默认为5秒。")
             .defaultValue("5 seconds")
             .required(true)
             .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
@@ -87,7 +108,7 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
     public static final PropertyDescriptor MAX_CONNECTION_POOL_SIZE = new PropertyDescriptor.Builder()
             .name("neo4j-max-connection-pool-size")
             .displayName("最大连接数")
-            .description("NEO4J的最大连接数，默认100个连接。")
+            .description("NEO4J的最大连接数，默认100个连接；连接池由所有并发任务共用，不应小于处理器的并发任务数。")
             .defaultValue("100")
             .required(true)
             .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
@@ -96,8 +117,8 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
 
     public static final PropertyDescriptor MAX_CONNECTION_ACQUISITION_TIMEOUT = new PropertyDescriptor.Builder()
             .name("neo4j-max-connection-acquisition-timeout")
-            .displayName("最大连接占用时间")
-            .description("NEO4J的最大连接占用时间，默认为60秒。")
+            .displayName("获取连接最大等待时间")
+            .description("从连接池获取连接的最大等待时间，连接池已满时超过该时间将出现错误，默认为60秒。")
             .defaultValue("60 second")
             .required(true)
             .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
@@ -173,6 +194,30 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
             .description("处理过程出现错误的FlowFile队列。")
             .build();
 
+    public static final Relationship REL_RETRY = new Relationship.Builder().name("retry")
+            .description("可尝试重新处理的FlowFile队列。")
+            .build();
+
+    public static final PropertyDescriptor MAX_RETRIES = new PropertyDescriptor.Builder()
+            .name("neo4j-max-retries")
+            .displayName("最大重试次数")
+            .description("遇到死锁、集群主节点切换、服务不可用等临时错误时在处理器内重试的最大次数，默认为3次；重试后仍然失败的FlowFile惩罚后转入retry队列。")
+            .defaultValue("3")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RETRY_BACKOFF = new PropertyDescriptor.Builder()
+            .name("neo4j-retry-backoff")
+            .displayName("初始重试间隔")
+            .description("第一次重试前的等待时间，之后每次重试等待时间加倍，最长不超过10秒，默认为100毫秒。")
+            .defaultValue("100 millis")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 10000L;
+
     public static final String ERROR_MESSAGE = "neo4j.error.message";
     public static final String NODES_CREATED= "neo4j.nodes.created";
     public static final String RELATIONS_CREATED = "neo4j.relations.created";
@@ -183,84 +228,194 @@ public abstract class AbstractNeo4jCypherProcessor extends AbstractXNifiProcesso
     public static final String ROWS_RETURNED = "neo4j.rows.returned";
 
     protected volatile Driver neo4JDriver;
-    protected volatile String username;
-    protected volatile String password;
     protected volatile String connectionUrl;
-    protected volatile Integer port;
-    protected volatile Config.LoadBalancingStrategy loadBalancingStrategy;
+    protected volatile int maxRetries;
+    protected volatile long retryBackoffMillis;
+    /**
+     * 驱动是否由处理器自己创建，使用连接服务的驱动时停止处理器不能关闭驱动
+     */
+    private volatile boolean ownDriver;
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = new ArrayList<>(super.customValidate(validationContext));
+        if (!validationContext.getProperty(NEO4J_CONNECTION_SERVICE).isSet()
+                && (!validationContext.getProperty(USERNAME).isSet() || !validationContext.getProperty(PASSWORD).isSet())) {
+            results.add(new ValidationResult.Builder()
+                    .valid(false)
+                    .explanation("未指定NEO4J连接服务时必须指定用户名和密码。")
+                    .subject("NEO4J连接配置")
+                    .build());
+        }
+        return results;
+    }
 
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+
+        PropertyValue maxRetriesValue = context.getProperty(MAX_RETRIES);
+        maxRetries = maxRetriesValue.isSet() ? maxRetriesValue.asInteger() : 0;
+        PropertyValue retryBackoffValue = context.getProperty(RETRY_BACKOFF);
+        retryBackoffMillis = retryBackoffValue.isSet() ? retryBackoffValue.asTimePeriod(TimeUnit.MILLISECONDS) : 0L;
+
+        Neo4jConnectionService connectionService = context.getProperty(NEO4J_CONNECTION_SERVICE).asControllerService(Neo4jConnectionService.class);
+        int maxConnectionPoolSize;
         try {
-            neo4JDriver = getDriver(context);
+            if (connectionService != null) {
+                neo4JDriver = connectionService.getDriver();
+                connectionUrl = connectionService.getConnectionUrl();
+                maxConnectionPoolSize = connectionService.getMaxConnectionPoolSize();
+                ownDriver = false;
+            } else {
+                neo4JDriver = getDriver(context);
+                maxConnectionPoolSize = context.getProperty(MAX_CONNECTION_POOL_SIZE).asInteger();
+                ownDriver = true;
+            }
         } catch(Exception e) {
             getLogger().error("取得NEO4J连接时出现错误" + ExceptionUtils.getMessage(e));
             throw new ProcessException("取得NEO4J连接时出现错误：" + ExceptionUtils.getMessage(e));
         }
-//        getLogger().info("成功创建NEO4J连接：{}",
-//                new Object[] {connectionUrl});
+
+        int requiredConnections = context.getMaxConcurrentTasks() * getConnectionsPerTask(context);
+        if (requiredConnections > maxConnectionPoolSize) {
+            getLogger().warn("并发任务最多同时占用{}个连接，大于NEO4J最大连接数{}，部分任务将等待空闲连接。",
+                    new Object[] {requiredConnections, maxConnectionPoolSize});
+        }
+    }
+
+    /**
+     * 每个并发任务最多同时占用的连接数，用于检查连接池大小是否足够
+     * @param context
+     * @return
+     */
+    protected int getConnectionsPerTask(ProcessContext context) {
+        return 1;
     }
 
     @Override
-    protected void afterProcess() {
-//        getLogger().info("关闭NEO4J连接池及驱动。");
-        if ( neo4JDriver != null ) {
-            neo4JDriver.close();
-            neo4JDriver = null;
+    protected void cleanup() {
+        Driver driver = neo4JDriver;
+        neo4JDriver = null;
+        if ( driver != null && ownDriver ) {
+            driver.close();
         }
 
-        super.afterProcess();
+        super.cleanup();
     }
 
     /**
-     * 取得NEO4J驱动实例
-     * @return Driver instance
+     * 是否为可以重试的临时错误：死锁等TransientError、服务不可用、集群主节点切换导致的会话失效
+     * @param e
+     * @return
      */
-    protected Driver getNeo4JDriver() {
-        return neo4JDriver;
+    protected static boolean isTransientError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof TransientException || t instanceof ServiceUnavailableException || t instanceof SessionExpiredException) {
+                return true;
+            }
+            if (t instanceof Neo4jException) {
+                String code = ((Neo4jException) t).code();
+                if (code != null && (code.startsWith("Neo.TransientError.")
+                        || "Neo.ClientError.Cluster.NotALeader".equals(code)
+                        || "Neo.ClientError.General.ForbiddenOnReadOnlyDatabase".equals(code))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    protected Driver getDriver(ProcessContext context) {
-        connectionUrl = context.getProperty(CONNECTION_URL).evaluateAttributeExpressions().getValue();
-        username = context.getProperty(USERNAME).evaluateAttributeExpressions().getValue();
-        password = context.getProperty(PASSWORD).getValue();
-
-        Config.ConfigBuilder configBuilder = Config.build();
-        String loadBalancingStrategyValue = context.getProperty(LOAD_BALANCING_STRATEGY).getValue();
-        if ( ! StringUtils.isBlank(loadBalancingStrategyValue) ) {
-            configBuilder = configBuilder.withLoadBalancingStrategy(
-                    Config.LoadBalancingStrategy.valueOf(loadBalancingStrategyValue));
+    /**
+     * 执行操作，遇到临时错误时按指数退避在处理器内重试，超过最大重试次数或遇到其他错误时抛出最后一次的异常
+     * <p>
+     * 操作必须在显式事务中执行并通过{@link #commit(Transaction)}提交：提交前失败时事务回滚，可以整体重复执行；
+     * 自动提交的查询失败时服务端可能已经提交，不能使用本方法重试
+     * @param action
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    protected <T> T executeWithRetry(Callable<T> action) throws Exception {
+        int attempt = 0;
+        while (true) {
+            try {
+                return action.call();
+            } catch (Exception e) {
+                if (attempt >= maxRetries || !isTransientError(e)) {
+                    throw e;
+                }
+                long backoff = getRetryBackoffMillis(attempt++);
+                getLogger().warn("执行NEO4J操作出现临时错误，{}毫秒后进行第{}次重试：{}。",
+                        new Object[]{backoff, attempt, ExceptionUtils.getMessage(e)});
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
         }
+    }
 
-        configBuilder.withMaxConnectionPoolSize(context.getProperty(MAX_CONNECTION_POOL_SIZE).asInteger());
-
-        configBuilder.withConnectionAcquisitionTimeout(context.getProperty(CONNECTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS), TimeUnit.SECONDS);
-
-        configBuilder.withMaxConnectionLifetime(context.getProperty(MAX_CONNECTION_ACQUISITION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS), TimeUnit.SECONDS);
+    /**
+     * 提交显式事务。提交过程中出现的错误无法确定事务是否已经在服务端提交，包装为非临时错误抛出，
+     * 不在处理器内重试，FlowFile转入failure队列
+     * @param tx
+     */
+    protected static void commit(Transaction tx) {
+        tx.success();
+        try {
+            tx.close();
+        } catch (RuntimeException e) {
+            ProcessException exception = new ProcessException("提交NEO4J事务时出现错误，无法确定事务是否已提交：" + ExceptionUtils.getMessage(e));
+            exception.addSuppressed(e);
+            throw exception;
+        }
+    }
 
-        configBuilder.withConnectionLivenessCheckTimeout(context.getProperty(IDLE_TIME_BEFORE_CONNECTION_TEST).asTimePeriod(TimeUnit.SECONDS), TimeUnit.SECONDS);
+    /**
+     * 第attempt次重试（从0开始）前的等待时间
+     * @param attempt
+     * @return
+     */
+    protected long getRetryBackoffMillis(int attempt) {
+        return Math.min(retryBackoffMillis << Math.min(attempt, 16), MAX_RETRY_BACKOFF_MILLIS);
+    }
 
-        if ( context.getProperty(ENCRYPTION).asBoolean() ) {
-            configBuilder.withEncryption();
+    /**
+     * 根据异常类型转移FlowFile：临时错误惩罚后转入retry队列，其他错误转入failure队列；不让处理器整体让步
+     * @param session
+     * @param flowFile
+     * @param exception
+     */
+    protected void transferOnError(ProcessSession session, FlowFile flowFile, Throwable exception) {
+        getLogger().error("执行NEO4J操作失败：{}。",
+                new Object[]{exception.getLocalizedMessage()}, exception);
+        flowFile = session.putAttribute(flowFile, ERROR_MESSAGE, String.valueOf(exception.getMessage()));
+        if (isTransientError(exception)) {
+            flowFile = session.penalize(flowFile);
+            session.transfer(flowFile, REL_RETRY);
         } else {
-            configBuilder.withoutEncryption();
+            session.transfer(flowFile, REL_FAILURE);
         }
+    }
 
-        PropertyValue trustStrategy = context.getProperty(TRUST_STRATEGY);
-        if ( trustStrategy.isSet() ) {
-            if ( trustStrategy.getValue().equals(TRUST_CUSTOM_CA_SIGNED_CERTIFICATES.getValue())) {
-                configBuilder.withTrustStrategy(Config.TrustStrategy.trustCustomCertificateSignedBy(new File(
-                        context.getProperty(TRUST_CUSTOM_CA_SIGNED_CERTIFICATES_FILE).getValue())));
-            } else if ( trustStrategy.getValue().equals(TRUST_SYSTEM_CA_SIGNED_CERTIFICATES.getValue())) {
-                configBuilder.withTrustStrategy(Config.TrustStrategy.trustSystemCertificates());
-            } else if ( trustStrategy.getValue().equals(TRUST_ALL_CERTIFICATES.getValue())) {
-                configBuilder.withTrustStrategy(Config.TrustStrategy.trustAllCertificates());
-            }
-        }
+    /**
+     * 取得NEO4J驱动实例，驱动在所有触发和并发任务之间共享，调用方不能关闭
+     * @return Driver instance
+     */
+    protected Driver getNeo4JDriver() {
+        return neo4JDriver;
+    }
 
-        return GraphDatabase.driver( connectionUrl, AuthTokens.basic( username, password),
-                configBuilder.toConfig());
+    /**
+     * 根据处理器上的连接属性创建驱动，只在调度开始时调用一次
+     * @param context
+     * @return
+     */
+    protected Driver getDriver(ProcessContext context) {
+        connectionUrl = context.getProperty(CONNECTION_URL).evaluateAttributeExpressions().getValue();
+        return Neo4jDriverUtils.createDriver(context);
     }
 }
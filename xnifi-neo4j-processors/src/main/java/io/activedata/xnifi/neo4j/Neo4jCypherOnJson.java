@@ -1,7 +1,9 @@
 package io.activedata.xnifi.neo4j;
 
-import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONWriter;
 import io.activedata.xnifi.utils.FlowFileUtils;
+import io.activedata.xnifi.utils.NamedThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.nifi.annotation.behavior.*;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
@@ -11,13 +13,33 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.neo4j.driver.internal.value.EntityValueAdapter;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
-import org.neo4j.driver.v1.summary.ResultSummary;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.StatementRunner;
+import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.summary.SummaryCounters;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
 @EventDriven
@@ -34,9 +56,42 @@ import java.util.*;
         @WritesAttribute(attribute = AbstractNeo4jCypherProcessor.RELATIONS_CREATED, description = "Number of relationships created"),
         @WritesAttribute(attribute = AbstractNeo4jCypherProcessor.RELATIONS_DELETED, description = "Number of relationships deleted"),
         @WritesAttribute(attribute = AbstractNeo4jCypherProcessor.ROWS_RETURNED, description = "Number of rows returned"),
+        @WritesAttribute(attribute = Neo4jCypherOnJson.BATCH_FLOWFILES, description = "Number of FlowFiles executed in the same batch"),
 })
 public class Neo4jCypherOnJson extends AbstractNeo4jCypherProcessor {
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("neo4j-batch-size")
+            .displayName("批处理大小")
+            .description("每次读取多少个FlowFile合并执行，默认为1即逐个执行。大于1时Cypher查询相同的FlowFile的JSON行合并为一个jsonRows参数，"
+                    + "在同一个事务中执行一次（查询应使用UNWIND $jsonRows处理），FlowFile内容保持不变，统计属性为整个批次的合计。")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_IN_FLIGHT = new PropertyDescriptor.Builder()
+            .name("neo4j-max-in-flight")
+            .displayName("最大并发查询数")
+            .description("每个任务同时执行的最大查询数，默认为1即同步执行。大于1时使用驱动的异步接口，每个查询占用一个连接，"
+                    + "查询结果到达后即逐条写入对应的FlowFile，少量线程即可充分利用数据库；临时错误延迟后重新发起，不阻塞其他查询结果的处理。仅在批处理大小为1时有效。")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final String BATCH_FLOWFILES = "neo4j.batch.flowfiles";
+
+    /**
+     * 异步模式下每次触发最多处理的FlowFile数量，达到后提交会话，避免会话长时间不提交
+     */
+    private static final int ASYNC_MAX_FLOWFILES_PER_TRIGGER = 1000;
+
+    /**
+     * 异步模式下延迟重新发起查询的定时线程，只负责发起查询，不访问ProcessSession
+     */
+    private volatile ScheduledExecutorService retryScheduler;
+
     private static final Set<Relationship> relationships;
     private static final List<PropertyDescriptor> propertyDescriptors;
 
@@ -44,13 +99,19 @@ public class Neo4jCypherOnJson extends AbstractNeo4jCypherProcessor {
         final Set<Relationship> tempRelationships = new HashSet<>();
         tempRelationships.add(REL_SUCCESS);
         tempRelationships.add(REL_FAILURE);
+        tempRelationships.add(REL_RETRY);
         relationships = Collections.unmodifiableSet(tempRelationships);
 
         final List<PropertyDescriptor> tempDescriptors = new ArrayList<>();
+        tempDescriptors.add(NEO4J_CONNECTION_SERVICE);
         tempDescriptors.add(CONNECTION_URL);
         tempDescriptors.add(USERNAME);
         tempDescriptors.add(PASSWORD);
         tempDescriptors.add(QUERY);
+        tempDescriptors.add(BATCH_SIZE);
+        tempDescriptors.add(MAX_IN_FLIGHT);
+        tempDescriptors.add(MAX_RETRIES);
+        tempDescriptors.add(RETRY_BACKOFF);
         tempDescriptors.add(LOAD_BALANCING_STRATEGY);
         tempDescriptors.add(CONNECTION_TIMEOUT);
         tempDescriptors.add(MAX_CONNECTION_POOL_SIZE);
@@ -74,8 +135,38 @@ public class Neo4jCypherOnJson extends AbstractNeo4jCypherProcessor {
         return propertyDescriptors;
     }
 
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+        if (context.getProperty(BATCH_SIZE).asInteger() == 1 && context.getProperty(MAX_IN_FLIGHT).asInteger() > 1) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(getName() + "-retry-" + getIdentifier()));
+        }
+    }
+
+    @Override
+    protected void cleanup() {
+        ScheduledExecutorService scheduler = retryScheduler;
+        retryScheduler = null;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        super.cleanup();
+    }
+
     @Override
     protected void process(ProcessContext context, ProcessSession session) throws ProcessException {
+        int batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        if (batchSize > 1) {
+            processBatch(context, session, batchSize);
+            return;
+        }
+
+        int maxInFlight = context.getProperty(MAX_IN_FLIGHT).asInteger();
+        if (maxInFlight > 1) {
+            processAsync(context, session, maxInFlight);
+            return;
+        }
+
         FlowFile flowFile = session.get();
         if (flowFile == null) {
             return;
@@ -87,58 +178,398 @@ public class Neo4jCypherOnJson extends AbstractNeo4jCypherProcessor {
         try {
             long startTimeMillis = System.currentTimeMillis();
 
-            StatementResult statementResult = executeQuery(query, params);
-            List<Map<String, Object>> returnValue = statementResult.list(record -> {
-                return record.asMap(v -> {
-                    if (v instanceof EntityValueAdapter) {
-                        return v.asMap();
+            final FlowFile original = flowFile;
+            flowFile = executeWithRetry(() -> executeAndWrite(session, original, query, params));
+
+            final long endTimeMillis = System.currentTimeMillis();
+            session.transfer(flowFile, REL_SUCCESS);
+            session.getProvenanceReporter().send(flowFile, connectionUrl, (endTimeMillis - startTimeMillis));
+        } catch (Exception exception) {
+            transferOnError(session, flowFile, exception);
+        }
+    }
+
+    /**
+     * 在显式事务中执行查询并把结果写入FlowFile，写完结果后在写入回调中提交事务。
+     * 提交前出现异常时事务回滚、FlowFile内容保持不变，可以整体重试
+     * @param session
+     * @param flowFile
+     * @param query
+     * @param params
+     * @return 写入结果并设置了统计属性的FlowFile
+     */
+    private FlowFile executeAndWrite(ProcessSession session, FlowFile flowFile, String query, Object params) {
+        try (Session neo4jSession = getNeo4JDriver().session();
+             Transaction tx = neo4jSession.beginTransaction()) {
+            long startTimeMillis = System.currentTimeMillis();
+
+            StatementResult statementResult = executeQuery(tx, query, params);
+            final int[] rowsReturned = new int[1];
+            final SummaryCounters[] counters = new SummaryCounters[1];
+            flowFile = session.write(flowFile, out -> {
+                rowsReturned[0] = writeRecords(statementResult, out);
+                counters[0] = statementResult.summary().counters();
+                commit(tx);
+            });
+
+            if (getLogger().isDebugEnabled()) {
+                getLogger().debug("执行查询[{}]花费时间{}ms，返回{}行。", new Object[]{query, System.currentTimeMillis() - startTimeMillis, rowsReturned[0]});
+            }
+
+            return populateAttributes(session, flowFile, counters[0], rowsReturned[0]);
+        }
+    }
+
+    @Override
+    protected int getConnectionsPerTask(ProcessContext context) {
+        if (context.getProperty(BATCH_SIZE).asInteger() > 1) {
+            return 1;
+        }
+        return context.getProperty(MAX_IN_FLIGHT).asInteger();
+    }
+
+    /**
+     * 异步模式：同时保持最多maxInFlight个查询在执行，每完成一个就处理对应的FlowFile并发起下一个
+     * <p>
+     * 驱动的回调线程只负责发起查询，查询结果就绪后由onTrigger线程从游标中逐条读取写入FlowFile并提交事务，
+     * ProcessSession不需要跨线程访问；临时错误通过定时线程延迟重新发起查询，不阻塞其他结果的处理
+     * @param context
+     * @param session
+     * @param maxInFlight
+     */
+    protected void processAsync(ProcessContext context, ProcessSession session, int maxInFlight) {
+        BlockingQueue<AsyncResult> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        int launched = 0;
+        boolean drained = false;
+
+        while (true) {
+            while (!drained && inFlight < maxInFlight && launched < ASYNC_MAX_FLOWFILES_PER_TRIGGER) {
+                FlowFile flowFile = session.get();
+                if (flowFile == null) {
+                    drained = true;
+                    break;
+                }
+
+                String query = context.getProperty(QUERY).evaluateAttributeExpressions(flowFile).getValue();
+                Object params;
+                try {
+                    params = FlowFileUtils.readJsonToObject(session, flowFile);
+                } catch (Exception e) {
+                    transferOnError(session, flowFile, e);
+                    continue;
+                }
+                launchAsync(new AsyncResult(flowFile, query, params, 0), completed);
+                inFlight++;
+                launched++;
+            }
+
+            if (inFlight == 0) {
+                break;
+            }
+
+            AsyncResult result;
+            try {
+                result = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("等待NEO4J异步查询结果时被中断。", e);
+            }
+
+            FlowFile flowFile = null;
+            if (result.error == null) {
+                try {
+                    flowFile = writeAsyncResult(session, result);
+                } catch (Exception e) {
+                    result.error = e;
+                }
+            }
+
+            if (flowFile != null) {
+                session.transfer(flowFile, REL_SUCCESS);
+                session.getProvenanceReporter().send(flowFile, connectionUrl, System.currentTimeMillis() - result.startTimeMillis);
+                inFlight--;
+                continue;
+            }
+
+            //临时错误：延迟后重新发起查询，等待期间仍计入执行中的查询数
+            if (result.attempt >= maxRetries || !isTransientError(result.error) || !scheduleRetry(result, completed)) {
+                transferOnError(session, result.flowFile, result.error);
+                inFlight--;
+            }
+        }
+    }
+
+    /**
+     * 在显式事务中异步发起查询，查询结果就绪或出现错误后放入completed队列；出现错误时关闭会话后再放入
+     * @param result
+     * @param completed
+     */
+    private void launchAsync(AsyncResult result, BlockingQueue<AsyncResult> completed) {
+        result.startTimeMillis = System.currentTimeMillis();
+        final Session neo4jSession;
+        try {
+            neo4jSession = getNeo4JDriver().session();
+        } catch (Exception e) {
+            result.error = e;
+            completed.add(result);
+            return;
+        }
+        result.neo4jSession = neo4jSession;
+
+        CompletionStage<Transaction> txStage;
+        try {
+            txStage = neo4jSession.beginTransactionAsync();
+        } catch (Exception e) {
+            CompletableFuture<Transaction> failedStage = new CompletableFuture<>();
+            failedStage.completeExceptionally(e);
+            txStage = failedStage;
+        }
+
+        txStage
+                .thenCompose(tx -> {
+                    result.tx = tx;
+                    return executeQueryAsync(tx, result.query, result.params);
+                })
+                .whenComplete((cursor, error) -> {
+                    if (error == null) {
+                        result.cursor = cursor;
+                        completed.add(result);
                     } else {
-                        return v.asObject();
+                        result.error = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        neo4jSession.closeAsync().whenComplete((ignored, closeError) -> completed.add(result));
                     }
                 });
+    }
+
+    /**
+     * 在onTrigger线程中把游标中的记录逐条写入FlowFile，写完后在写入回调中提交事务，
+     * 提交前出现异常时事务回滚、FlowFile内容保持不变，可以整体重试
+     * @param session
+     * @param result
+     * @return 写入结果并设置了统计属性的FlowFile
+     */
+    private FlowFile writeAsyncResult(ProcessSession session, AsyncResult result) {
+        try {
+            final int[] rowsReturned = new int[1];
+            final SummaryCounters[] counters = new SummaryCounters[1];
+            FlowFile flowFile = session.write(result.flowFile, out -> {
+                rowsReturned[0] = writeRecords(result.cursor, out);
+                counters[0] = await(result.cursor.summaryAsync()).counters();
+                commit(result.tx);
             });
+            return populateAttributes(session, flowFile, counters[0], rowsReturned[0]);
+        } finally {
+            result.neo4jSession.closeAsync();
+        }
+    }
 
-            String json = JSON.toJSONString(returnValue);
-            FlowFileUtils.write(session, flowFile, json);
+    /**
+     * 按退避时间延迟后重新发起查询，重新发起的查询完成后同样放入completed队列
+     * @param result
+     * @param completed
+     * @return 是否已安排重试，处理器已停止、定时线程不再接受任务时返回false
+     */
+    private boolean scheduleRetry(AsyncResult result, BlockingQueue<AsyncResult> completed) {
+        ScheduledExecutorService scheduler = retryScheduler;
+        if (scheduler == null) {
+            return false;
+        }
+        long backoff = getRetryBackoffMillis(result.attempt);
+        AsyncResult retry = new AsyncResult(result.flowFile, result.query, result.params, result.attempt + 1);
+        try {
+            scheduler.schedule(() -> launchAsync(retry, completed), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        getLogger().warn("执行NEO4J操作出现临时错误，{}毫秒后进行第{}次重试：{}。",
+                new Object[]{backoff, retry.attempt, ExceptionUtils.getMessage(result.error)});
+        return true;
+    }
 
-            final long endTimeMillis = System.currentTimeMillis();
+    /**
+     * 使用异步接口执行查询，参数的处理方式与{@link #executeQuery(StatementRunner, String, Object)}相同
+     * @param runner
+     * @param query
+     * @param params
+     * @return
+     */
+    protected CompletionStage<StatementResultCursor> executeQueryAsync(StatementRunner runner, String query, Object params) {
+        if (params instanceof Map) {
+            return runner.runAsync(query, (Map<String, Object>) params);
+        } else if (params instanceof List) {
+            Map<String, Object> paramMap = new HashMap<>();
+            paramMap.put("jsonRows", params);
+            return runner.runAsync(query, paramMap);
+        } else {
+            return runner.runAsync(query);
+        }
+    }
 
-            if (getLogger().isDebugEnabled()) {
-                getLogger().debug("执行查询[{}]花费时间{}ms，结果为：{}。", new Object[]{query, endTimeMillis, returnValue});
+    /**
+     * 批量模式：按Cypher查询分组，每组的JSON行合并为jsonRows参数后在一个事务中执行一次
+     * <p>
+     * 内容为JSON数组的FlowFile贡献数组中的每个元素，内容为JSON对象的贡献一行；同一组的FlowFile一起成功或一起失败
+     * @param context
+     * @param session
+     * @param batchSize
+     */
+    protected void processBatch(ProcessContext context, ProcessSession session, int batchSize) {
+        List<FlowFile> flowFiles = session.get(batchSize);
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        Map<String, Batch> batches = new LinkedHashMap<>();
+        for (FlowFile flowFile : flowFiles) {
+            String query = context.getProperty(QUERY).evaluateAttributeExpressions(flowFile).getValue();
+            Object params;
+            try {
+                params = FlowFileUtils.readJsonToObject(session, flowFile);
+            } catch (Exception e) {
+                transferOnError(session, flowFile, e);
+                continue;
             }
 
-            flowFile = populateAttributes(session, flowFile, statementResult, returnValue.size());
+            Batch batch = batches.computeIfAbsent(query, k -> new Batch());
+            batch.flowFiles.add(flowFile);
+            if (params instanceof List) {
+                batch.rows.addAll((List<?>) params);
+            } else if (params != null) {
+                batch.rows.add(params);
+            }
+        }
 
-            session.transfer(flowFile, REL_SUCCESS);
-            session.getProvenanceReporter().send(flowFile, connectionUrl, (endTimeMillis - startTimeMillis));
-        } catch (Exception exception) {
-            getLogger().error("执行NEO4J操作失败：{}。",
-                    new Object[]{exception.getLocalizedMessage()}, exception);
-            flowFile = session.putAttribute(flowFile, ERROR_MESSAGE, String.valueOf(exception.getMessage()));
-            session.transfer(flowFile, REL_FAILURE);
-            context.yield();
-        }
-    }
-
-    protected StatementResult executeQuery(String query, Object params) {
-        try (Session session = getNeo4JDriver().session()) {
-            if (params instanceof Map) {
-                return session.run(query, (Map<String, Object>) params);
-            } else if (params instanceof List) {
-                HashMap paramMap = new HashMap();
-                paramMap.put("jsonRows", params);
-                return session.run(query, paramMap);
-            } else {
-                return session.run(query);
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            String query = entry.getKey();
+            Batch batch = entry.getValue();
+            try {
+                long startTimeMillis = System.currentTimeMillis();
+                executeWithRetry(() -> {
+                    executeBatchQuery(query, batch);
+                    return null;
+                });
+                final long elapsedMillis = System.currentTimeMillis() - startTimeMillis;
+
+                if (getLogger().isDebugEnabled()) {
+                    getLogger().debug("批量执行查询[{}]花费时间{}ms，FlowFile数量：{}，行数：{}。",
+                            new Object[]{query, elapsedMillis, batch.flowFiles.size(), batch.rows.size()});
+                }
+
+                for (FlowFile flowFile : batch.flowFiles) {
+                    flowFile = populateAttributes(session, flowFile, batch.counters, batch.rowsReturned);
+                    flowFile = session.putAttribute(flowFile, BATCH_FLOWFILES, String.valueOf(batch.flowFiles.size()));
+                    session.transfer(flowFile, REL_SUCCESS);
+                    session.getProvenanceReporter().send(flowFile, connectionUrl, elapsedMillis);
+                }
+            } catch (Exception exception) {
+                for (FlowFile flowFile : batch.flowFiles) {
+                    transferOnError(session, flowFile, exception);
+                }
             }
         }
     }
 
-    private FlowFile populateAttributes(final ProcessSession session, FlowFile flowFile,
-                                        StatementResult statementResult, int size) {
-        ResultSummary summary = statementResult.summary();
-        SummaryCounters counters = summary.counters();
+    /**
+     * 在一个显式事务中执行批量查询，结果记录只计数不返回
+     * @param query
+     * @param batch
+     */
+    protected void executeBatchQuery(String query, Batch batch) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("jsonRows", batch.rows);
+        try (Session session = getNeo4JDriver().session();
+             Transaction tx = session.beginTransaction()) {
+            StatementResult statementResult = tx.run(query, params);
+            int rowsReturned = 0;
+            while (statementResult.hasNext()) {
+                statementResult.next();
+                rowsReturned++;
+            }
+            batch.counters = statementResult.summary().counters();
+            batch.rowsReturned = rowsReturned;
+            commit(tx);
+        }
+    }
+
+    protected StatementResult executeQuery(StatementRunner runner, String query, Object params) {
+        if (params instanceof Map) {
+            return runner.run(query, (Map<String, Object>) params);
+        } else if (params instanceof List) {
+            HashMap paramMap = new HashMap();
+            paramMap.put("jsonRows", params);
+            return runner.run(query, paramMap);
+        } else {
+            return runner.run(query);
+        }
+    }
+
+    /**
+     * 逐条读取查询结果并以JSON数组的形式写入输出流，内存占用与结果集大小无关
+     * @param statementResult
+     * @param out
+     * @return 写入的记录数
+     * @throws IOException
+     */
+    protected int writeRecords(StatementResult statementResult, OutputStream out) throws IOException {
+        return writeRecords(() -> statementResult.hasNext() ? statementResult.next() : null, out);
+    }
 
+    /**
+     * 从异步游标中逐条读取查询结果写入输出流，驱动按读取进度拉取记录，内存占用与结果集大小无关
+     * @param cursor
+     * @param out
+     * @return 写入的记录数
+     * @throws IOException
+     */
+    protected int writeRecords(StatementResultCursor cursor, OutputStream out) throws IOException {
+        return writeRecords(() -> await(cursor.nextAsync()), out);
+    }
+
+    private int writeRecords(Supplier<Record> nextRecord, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        JSONWriter jsonWriter = new JSONWriter(writer);
+        int count = 0;
+        jsonWriter.startArray();
+        for (Record record = nextRecord.get(); record != null; record = nextRecord.get()) {
+            jsonWriter.writeObject(toRow(record));
+            count++;
+        }
+        jsonWriter.endArray();
+        //只刷新不关闭，输出流由ProcessSession管理
+        jsonWriter.flush();
+        return count;
+    }
+
+    /**
+     * 在onTrigger线程中等待异步操作完成，驱动抛出的异常去掉CompletionException包装后原样抛出
+     * @param stage
+     * @param <T>
+     * @return
+     */
+    private static <T> T await(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Map<String, Object> toRow(Record record) {
+        return record.asMap(v -> {
+            if (v instanceof EntityValueAdapter) {
+                return v.asMap();
+            } else {
+                return v.asObject();
+            }
+        });
+    }
+
+    private FlowFile populateAttributes(final ProcessSession session, FlowFile flowFile,
+                                        SummaryCounters counters, int size) {
         Map<String, String> resultAttributes = new HashMap<>();
         resultAttributes.put(NODES_CREATED, String.valueOf(counters.nodesCreated()));
         resultAttributes.put(RELATIONS_CREATED, String.valueOf(counters.relationshipsCreated()));
@@ -151,4 +582,36 @@ public class Neo4jCypherOnJson extends AbstractNeo4jCypherProcessor {
         flowFile = session.putAllAttributes(flowFile, resultAttributes);
         return flowFile;
     }
+
+    /**
+     * 一个异步查询的执行结果，由驱动的回调线程填充，在onTrigger线程中读取
+     */
+    private static class AsyncResult {
+        final FlowFile flowFile;
+        final String query;
+        final Object params;
+        final int attempt;
+        volatile long startTimeMillis;
+        volatile Session neo4jSession;
+        volatile Transaction tx;
+        volatile StatementResultCursor cursor;
+        volatile Throwable error;
+
+        AsyncResult(FlowFile flowFile, String query, Object params, int attempt) {
+            this.flowFile = flowFile;
+            this.query = query;
+            this.params = params;
+            this.attempt = attempt;
+        }
+    }
+
+    /**
+     * Cypher查询相同的一组FlowFile及其合并后的JSON行
+     */
+    protected static class Batch {
+        final List<FlowFile> flowFiles = new ArrayList<>();
+        final List<Object> rows = new ArrayList<>();
+        SummaryCounters counters;
+        int rowsReturned;
+    }
 }
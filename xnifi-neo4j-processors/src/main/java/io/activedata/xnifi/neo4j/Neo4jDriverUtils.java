@@ -0,0 +1,71 @@
+package io.activedata.xnifi.neo4j;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.context.PropertyContext;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static io.activedata.xnifi.neo4j.AbstractNeo4jCypherProcessor.*;
+
+/**
+ * 根据属性创建NEO4J驱动，处理器和连接服务共用
+ * <p>
+ * Driver自带连接池并且是线程安全的，同一组配置只应创建一个实例，在所有触发和并发任务之间共享
+ */
+public final class Neo4jDriverUtils {
+
+    private Neo4jDriverUtils() {
+    }
+
+    public static Driver createDriver(PropertyContext context) {
+        String connectionUrl = context.getProperty(CONNECTION_URL).evaluateAttributeExpressions().getValue();
+        String username = context.getProperty(USERNAME).evaluateAttributeExpressions().getValue();
+        String password = context.getProperty(PASSWORD).getValue();
+        return GraphDatabase.driver(connectionUrl, AuthTokens.basic(username, password), createConfig(context));
+    }
+
+    public static Config createConfig(PropertyContext context) {
+        Config.ConfigBuilder configBuilder = Config.build();
+        String loadBalancingStrategyValue = context.getProperty(LOAD_BALANCING_STRATEGY).getValue();
+        if ( ! StringUtils.isBlank(loadBalancingStrategyValue) ) {
+            configBuilder = configBuilder.withLoadBalancingStrategy(
+                    Config.LoadBalancingStrategy.valueOf(loadBalancingStrategyValue));
+        }
+
+        configBuilder.withMaxConnectionPoolSize(context.getProperty(MAX_CONNECTION_POOL_SIZE).asInteger());
+
+        configBuilder.withConnectionTimeout(context.getProperty(CONNECTION_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+
+        configBuilder.withConnectionAcquisitionTimeout(context.getProperty(MAX_CONNECTION_ACQUISITION_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+
+        configBuilder.withMaxConnectionLifetime(context.getProperty(MAX_CONNECTION_LIFETIME).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+
+        configBuilder.withConnectionLivenessCheckTimeout(context.getProperty(IDLE_TIME_BEFORE_CONNECTION_TEST).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+
+        if ( context.getProperty(ENCRYPTION).asBoolean() ) {
+            configBuilder.withEncryption();
+        } else {
+            configBuilder.withoutEncryption();
+        }
+
+        PropertyValue trustStrategy = context.getProperty(TRUST_STRATEGY);
+        if ( trustStrategy.isSet() ) {
+            if ( trustStrategy.getValue().equals(TRUST_CUSTOM_CA_SIGNED_CERTIFICATES.getValue())) {
+                configBuilder.withTrustStrategy(Config.TrustStrategy.trustCustomCertificateSignedBy(new File(
+                        context.getProperty(TRUST_CUSTOM_CA_SIGNED_CERTIFICATES_FILE).evaluateAttributeExpressions().getValue())));
+            } else if ( trustStrategy.getValue().equals(TRUST_SYSTEM_CA_SIGNED_CERTIFICATES.getValue())) {
+                configBuilder.withTrustStrategy(Config.TrustStrategy.trustSystemCertificates());
+            } else if ( trustStrategy.getValue().equals(TRUST_ALL_CERTIFICATES.getValue())) {
+                configBuilder.withTrustStrategy(Config.TrustStrategy.trustAllCertificates());
+            }
+        }
+
+        return configBuilder.toConfig();
+    }
+}
@@ -0,0 +1,20 @@
+package io.activedata.xnifi.neo4j.services;
+
+import org.apache.nifi.controller.ControllerService;
+import org.neo4j.driver.v1.Driver;
+
+/**
+ * NEO4J连接服务，持有在多个处理器之间共享的驱动及其连接池
+ */
+public interface Neo4jConnectionService extends ControllerService {
+
+    /**
+     * 取得共享的驱动，调用方不能关闭
+     * @return
+     */
+    Driver getDriver();
+
+    String getConnectionUrl();
+
+    int getMaxConnectionPoolSize();
+}
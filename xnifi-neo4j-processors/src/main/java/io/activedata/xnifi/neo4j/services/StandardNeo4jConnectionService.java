@@ -0,0 +1,112 @@
+package io.activedata.xnifi.neo4j.services;
+
+import io.activedata.xnifi.neo4j.Neo4jDriverUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.neo4j.driver.v1.Driver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static io.activedata.xnifi.neo4j.AbstractNeo4jCypherProcessor.*;
+
+/**
+ * NEO4J连接服务
+ * <p>
+ * 启用时创建驱动，禁用时关闭驱动，引用该服务的所有处理器及其并发任务共用同一个连接池
+ */
+@Tags({"neo4j", "graph", "cypher", "connection", "pooling"})
+@CapabilityDescription("NEO4J连接服务，在多个处理器之间共享同一个驱动及连接池。")
+public class StandardNeo4jConnectionService extends AbstractControllerService implements Neo4jConnectionService {
+
+    private static final List<PropertyDescriptor> propertyDescriptors;
+
+    static {
+        final List<PropertyDescriptor> tempDescriptors = new ArrayList<>();
+        tempDescriptors.add(CONNECTION_URL);
+        tempDescriptors.add(USERNAME);
+        tempDescriptors.add(PASSWORD);
+        tempDescriptors.add(LOAD_BALANCING_STRATEGY);
+        tempDescriptors.add(CONNECTION_TIMEOUT);
+        tempDescriptors.add(MAX_CONNECTION_POOL_SIZE);
+        tempDescriptors.add(MAX_CONNECTION_ACQUISITION_TIMEOUT);
+        tempDescriptors.add(IDLE_TIME_BEFORE_CONNECTION_TEST);
+        tempDescriptors.add(MAX_CONNECTION_LIFETIME);
+        tempDescriptors.add(ENCRYPTION);
+        tempDescriptors.add(TRUST_STRATEGY);
+        tempDescriptors.add(TRUST_CUSTOM_CA_SIGNED_CERTIFICATES_FILE);
+        propertyDescriptors = Collections.unmodifiableList(tempDescriptors);
+    }
+
+    private volatile Driver driver;
+    private volatile String connectionUrl;
+    private volatile int maxConnectionPoolSize;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return propertyDescriptors;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = new ArrayList<>(super.customValidate(validationContext));
+        if (!validationContext.getProperty(USERNAME).isSet() || !validationContext.getProperty(PASSWORD).isSet()) {
+            results.add(new ValidationResult.Builder()
+                    .valid(false)
+                    .explanation("必须指定用户名和密码。")
+                    .subject("NEO4J连接配置")
+                    .build());
+        }
+        return results;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        connectionUrl = context.getProperty(CONNECTION_URL).evaluateAttributeExpressions().getValue();
+        maxConnectionPoolSize = context.getProperty(MAX_CONNECTION_POOL_SIZE).asInteger();
+        try {
+            driver = Neo4jDriverUtils.createDriver(context);
+        } catch (Exception e) {
+            throw new ProcessException("创建NEO4J连接时出现错误：" + ExceptionUtils.getMessage(e), e);
+        }
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        Driver current = driver;
+        driver = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public Driver getDriver() {
+        Driver current = driver;
+        if (current == null) {
+            throw new ProcessException("NEO4J连接服务尚未启用。");
+        }
+        return current;
+    }
+
+    @Override
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    @Override
+    public int getMaxConnectionPoolSize() {
+        return maxConnectionPoolSize;
+    }
+}
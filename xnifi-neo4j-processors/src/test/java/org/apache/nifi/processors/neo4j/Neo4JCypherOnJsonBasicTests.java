@@ -23,6 +23,10 @@ import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.TransientException;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.summary.ResultSummary;
 import org.junit.After;
@@ -30,6 +34,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
@@ -39,8 +44,11 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Neo4J Cypher unit tests.
@@ -262,6 +270,127 @@ public class Neo4JCypherOnJsonBasicTests {
         assertEquals("QueryException",flowFiles.get(0).getAttribute(Neo4jCypherOnJson.ERROR_MESSAGE));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchUnwind() throws Exception {
+        String query = "unwind $jsonRows as row create (n {id: row.id})";
+        runner.setProperty(Neo4jCypherOnJson.QUERY, query);
+        runner.setProperty(Neo4jCypherOnJson.BATCH_SIZE, "10");
+        Mockito.when(mockDriver.session().beginTransaction().run(Mockito.anyString(), Mockito.anyMap())).thenReturn(mockStatementResult);
+        Mockito.when(mockStatementResult.summary().counters().nodesCreated()).thenReturn(3);
+
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.enqueue("{\"id\":3}");
+        runner.run(1,true,true);
+
+        runner.assertAllFlowFilesTransferred(Neo4jCypherOnJson.REL_SUCCESS, 2);
+        ArgumentCaptor<Map> params = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(mockDriver.session().beginTransaction(), Mockito.times(1)).run(Mockito.eq(query), params.capture());
+        assertEquals(3, ((List) params.getValue().get("jsonRows")).size());
+        Mockito.verify(mockDriver.session().beginTransaction()).success();
+
+        List<MockFlowFile> flowFiles = runner.getFlowFilesForRelationship(Neo4jCypherOnJson.REL_SUCCESS);
+        for (MockFlowFile flowFile : flowFiles) {
+            assertEquals("3", flowFile.getAttribute(Neo4jCypherOnJson.NODES_CREATED));
+            assertEquals("2", flowFile.getAttribute(Neo4jCypherOnJson.BATCH_FLOWFILES));
+        }
+        flowFiles.get(1).assertContentEquals("{\"id\":3}");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAsyncInFlight() throws Exception {
+        runner.setProperty(Neo4jCypherOnJson.QUERY, "match (n) return n");
+        runner.setProperty(Neo4jCypherOnJson.MAX_IN_FLIGHT, "2");
+        StatementResultCursor cursor = mockCursor();
+        Transaction tx = mockAsyncTransaction();
+        Mockito.when(tx.runAsync(Mockito.anyString(), Mockito.anyMap())).thenReturn(CompletableFuture.completedFuture(cursor));
+
+        runner.enqueue("{\"id\":1}");
+        runner.enqueue("{\"id\":2}");
+        runner.enqueue("{\"id\":3}");
+        runner.run(1,true,true);
+
+        runner.assertAllFlowFilesTransferred(Neo4jCypherOnJson.REL_SUCCESS, 3);
+        Mockito.verify(tx, Mockito.times(3)).runAsync(Mockito.anyString(), Mockito.anyMap());
+        Mockito.verify(tx, Mockito.times(3)).success();
+        Mockito.verify(mockDriver.session(), Mockito.never()).runAsync(Mockito.anyString(), Mockito.anyMap());
+        for (MockFlowFile flowFile : runner.getFlowFilesForRelationship(Neo4jCypherOnJson.REL_SUCCESS)) {
+            flowFile.assertContentEquals("[]");
+            assertEquals("1", flowFile.getAttribute(Neo4jCypherOnJson.NODES_CREATED));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAsyncTransientErrorRetried() throws Exception {
+        runner.setProperty(Neo4jCypherOnJson.QUERY, "match (n) return n");
+        runner.setProperty(Neo4jCypherOnJson.MAX_IN_FLIGHT, "2");
+        runner.setProperty(Neo4jCypherOnJson.RETRY_BACKOFF, "1 millis");
+        CompletableFuture<StatementResultCursor> deadlock = new CompletableFuture<>();
+        deadlock.completeExceptionally(new TransientException("Neo.TransientError.Transaction.DeadlockDetected", "deadlock"));
+        StatementResultCursor cursor = mockCursor();
+        Transaction tx = mockAsyncTransaction();
+        Mockito.when(tx.runAsync(Mockito.anyString(), Mockito.anyMap()))
+                .thenReturn(deadlock, CompletableFuture.completedFuture(cursor));
+
+        runner.enqueue("{\"id\":1}");
+        runner.run(1,true,true);
+
+        runner.assertAllFlowFilesTransferred(Neo4jCypherOnJson.REL_SUCCESS, 1);
+        Mockito.verify(tx, Mockito.times(2)).runAsync(Mockito.anyString(), Mockito.anyMap());
+        Mockito.verify(tx, Mockito.times(1)).success();
+        runner.getFlowFilesForRelationship(Neo4jCypherOnJson.REL_SUCCESS).get(0).assertContentEquals("[]");
+    }
+
+    private Transaction mockAsyncTransaction() {
+        Transaction tx = Mockito.mock(Transaction.class);
+        Mockito.when(mockDriver.session().beginTransactionAsync()).thenReturn(CompletableFuture.completedFuture(tx));
+        Mockito.when(mockDriver.session().closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        return tx;
+    }
+
+    private StatementResultCursor mockCursor() {
+        StatementResultCursor cursor = Mockito.mock(StatementResultCursor.class);
+        Mockito.when(cursor.nextAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        Mockito.when(cursor.summaryAsync()).thenReturn(CompletableFuture.completedFuture(mockResultSummary));
+        Mockito.when(mockResultSummary.counters().nodesCreated()).thenReturn(1);
+        return cursor;
+    }
+
+    @Test
+    public void testTransientErrorRetried() throws Exception {
+        runner.setProperty(Neo4jCypherOnJson.MAX_RETRIES, "2");
+        runner.setProperty(Neo4jCypherOnJson.RETRY_BACKOFF, "1 millis");
+        Mockito.when(mockDriver.session().beginTransaction().run(Mockito.anyString()))
+                .thenThrow(new TransientException("Neo.TransientError.Transaction.DeadlockDetected", "deadlock"));
+
+        runner.enqueue(new byte[] {});
+        runner.run(1,true,true);
+
+        runner.assertAllFlowFilesTransferred(Neo4jCypherOnJson.REL_RETRY, 1);
+        Mockito.verify(mockDriver.session().beginTransaction(), Mockito.times(3)).run(Mockito.anyString());
+        Mockito.verify(mockDriver.session(), Mockito.never()).run(Mockito.anyString());
+        MockFlowFile flowFile = runner.getFlowFilesForRelationship(Neo4jCypherOnJson.REL_RETRY).get(0);
+        assertTrue(flowFile.isPenalized());
+        assertEquals("deadlock", flowFile.getAttribute(Neo4jCypherOnJson.ERROR_MESSAGE));
+    }
+
+    @Test
+    public void testCommitErrorNotRetried() throws Exception {
+        runner.setProperty(Neo4jCypherOnJson.MAX_RETRIES, "2");
+        runner.setProperty(Neo4jCypherOnJson.RETRY_BACKOFF, "1 millis");
+        Mockito.doThrow(new ServiceUnavailableException("connection lost"))
+                .when(mockDriver.session().beginTransaction()).close();
+
+        runner.enqueue("{\"id\":1}");
+        runner.run(1,true,true);
+
+        runner.assertAllFlowFilesTransferred(Neo4jCypherOnJson.REL_FAILURE, 1);
+        Mockito.verify(mockDriver.session().beginTransaction(), Mockito.times(1)).run(Mockito.anyString(), Mockito.anyMap());
+        runner.getFlowFilesForRelationship(Neo4jCypherOnJson.REL_FAILURE).get(0).assertContentEquals("{\"id\":1}");
+    }
+
     @Test
     public void testEmptyQuery() throws Exception {
         runner.setProperty(Neo4jCypherOnJson.QUERY, "");
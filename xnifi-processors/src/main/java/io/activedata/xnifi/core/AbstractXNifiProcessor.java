@@ -3,6 +3,8 @@ package io.activedata.xnifi.core;
 import io.activedata.xnifi.exceptions.AllProcessFailedException;
 import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -12,7 +14,7 @@ import org.apache.nifi.processor.exception.ProcessException;
 
 /**
  * xnifi平台最基础的NiFi处理器抽象类</br>
- * 抽象对异常的处理
+ * 抽象对异常的处理，并将生命周期分为两层：调度时执行一次的setup/cleanup，以及每次onTrigger都会执行的beforeProcess/afterProcess
  *
  * @author MattU
  */
@@ -22,16 +24,37 @@ public abstract class AbstractXNifiProcessor extends AbstractSessionFactoryProce
         return getClass().getSimpleName();
     }
 
+    /**
+     * 处理器被调度时执行一次初始化，处理器属性只能在停止后修改，所以初始化结果在下次停止前一直有效
+     *
+     * @param context
+     */
+    @OnScheduled
+    public final void onScheduled(final ProcessContext context) {
+        setup(context);
+    }
+
+    /**
+     * 处理器停止后释放setup中创建的资源
+     */
+    @OnStopped
+    public final void onStopped() {
+        cleanup();
+    }
+
     public final void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory)
             throws ProcessException {
         final ProcessSession session = sessionFactory.createSession();
         try {
             beforeProcess(context);
             process(context, session);
+            beforeCommit(context);
             session.commit();
         } catch (final InvalidEnvironmentException | AllProcessFailedException e) {
+            onRollback();
             rollbackForException(context, session, e, true);
         } catch (final Exception e) {
+            onRollback();
             rollbackForException(context, session, e, true); //这里都进行回滚和惩罚，未使用Processor自己的回滚机制，因为NiFi自己取得的异常太简单
         } finally {
             afterProcess();
@@ -62,7 +85,23 @@ public abstract class AbstractXNifiProcessor extends AbstractSessionFactoryProce
             throws ProcessException;
 
     /**
-     * 在执行处理逻辑之前对processor进行初始化，如果这里抛出异常，则整个处理过程将中断
+     * 处理器被调度时调用一次，编译脚本、解析SQL、推断Schema、创建客户端等开销较大的初始化都应放在这里；
+     * 如果这里抛出异常，处理器将无法启动
+     *
+     * @param context
+     * @throws ProcessException
+     */
+    protected void setup(ProcessContext context) throws ProcessException {
+    }
+
+    /**
+     * 处理器停止时调用一次，释放setup中创建的资源
+     */
+    protected void cleanup() {
+    }
+
+    /**
+     * 每次onTrigger执行处理逻辑之前调用，只应进行开销很小的准备工作，如果这里抛出异常，则整个处理过程将中断
      *
      * @param context
      * @throws ProcessException
@@ -70,6 +109,22 @@ public abstract class AbstractXNifiProcessor extends AbstractSessionFactoryProce
     protected void beforeProcess(ProcessContext context) throws ProcessException {
     }
 
+    /**
+     * 在处理逻辑成功执行、会话提交之前调用，可在这里提交与会话对应的外部事务（如数据库事务）；
+     * 如果这里抛出异常，会话将被回滚
+     *
+     * @param context
+     * @throws ProcessException
+     */
+    protected void beforeCommit(ProcessContext context) throws ProcessException {
+    }
+
+    /**
+     * 在处理过程出现异常、会话回滚之前调用，可在这里回滚与会话对应的外部事务
+     */
+    protected void onRollback() {
+    }
+
     /**
      * 在处理逻辑执行完毕后调用
      */
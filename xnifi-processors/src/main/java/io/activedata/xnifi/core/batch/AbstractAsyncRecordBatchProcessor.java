@@ -1,21 +1,99 @@
 package io.activedata.xnifi.core.batch;
 
+import io.activedata.xnifi.utils.NamedThreadFactory;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * 异步处理记录的批处理器，每个处理器实例拥有独立且有界的线程池，避免不同数据流之间争抢公共的ForkJoinPool
+ * <p>
  * Created by MattU on 2018/1/27.
  */
 public abstract class AbstractAsyncRecordBatchProcessor extends AbstractBatchProcessor {
-    protected InputStreamCallback createCallback(ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session) {
-        return new AsyncRecordsProcessCallback(logger, original, context, session, this);
+
+    public static final PropertyDescriptor PROP_ASYNC_THREADS = new PropertyDescriptor.Builder()
+            .name("async.threads")
+            .displayName("异步处理线程数")
+            .description("处理记录的工作线程数量，设置为0时按CPU核数自动计算（核数 * 2）。")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_ASYNC_QUEUE_SIZE = new PropertyDescriptor.Builder()
+            .name("async.queue.size")
+            .displayName("异步处理队列长度")
+            .description("等待处理的记录队列的最大长度，队列已满时提交线程暂停读取，等待已提交的记录处理完成，以此对读取形成背压。")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_ASYNC_THREAD_NAME_PREFIX = new PropertyDescriptor.Builder()
+            .name("async.thread.name.prefix")
+            .displayName("异步处理线程名前缀")
+            .description("工作线程的名称前缀，为空时使用处理器的类名，便于在线程堆栈中区分不同的数据流。")
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    private volatile ThreadPoolExecutor executor;
+
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+
+        int threads = context.getProperty(PROP_ASYNC_THREADS).asInteger();
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        int queueSize = context.getProperty(PROP_ASYNC_QUEUE_SIZE).asInteger();
+        String namePrefix = context.getProperty(PROP_ASYNC_THREAD_NAME_PREFIX).getValue();
+        if (StringUtils.isBlank(namePrefix)) {
+            namePrefix = getName();
+        }
+
+        ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory(namePrefix + "-" + getIdentifier()),
+                new ThreadPoolExecutor.AbortPolicy()); //不在提交线程中直接处理记录，否则处理超时无法生效
+        newExecutor.allowCoreThreadTimeOut(true);
+        executor = newExecutor;
+    }
+
+    @Override
+    protected void cleanup() {
+        ThreadPoolExecutor oldExecutor = executor;
+        executor = null;
+        if (oldExecutor != null) {
+            oldExecutor.shutdownNow();
+        }
+        super.cleanup();
+    }
+
+    /**
+     * 获取处理记录的线程池，只在处理器调度期间可用
+     * @return
+     */
+    protected ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    protected InputStreamCallback createCallback(AbstractBatchProcessor processor, ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session) {
+        return new AsyncRecordsProcessCallback(logger, original, context, session, processor, getExecutor());
     }
 
     @Override
@@ -25,6 +103,10 @@ public abstract class AbstractAsyncRecordBatchProcessor extends AbstractBatchPro
         properties.add(AsyncRecordsProcessCallback.PROP_RECORD_WRITER);
         properties.add(AsyncRecordsProcessCallback.PROP_MAX_ERROR_COUNT);
         properties.add(AsyncRecordsProcessCallback.PROP_PROCESS_TIMEOUT);
+        properties.add(AsyncRecordsProcessCallback.PROP_MAX_IN_FLIGHT);
+        properties.add(PROP_ASYNC_THREADS);
+        properties.add(PROP_ASYNC_QUEUE_SIZE);
+        properties.add(PROP_ASYNC_THREAD_NAME_PREFIX);
         properties.addAll(super.getSupportedPropertyDescriptors());
         return properties;
     }
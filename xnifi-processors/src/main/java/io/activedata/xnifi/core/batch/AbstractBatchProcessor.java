@@ -8,9 +8,11 @@ import io.activedata.xnifi.exceptions.BizException;
 import io.activedata.xnifi.exceptions.RetrieableException;
 import io.activedata.xnifi.utils.ScriptContextUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
@@ -74,6 +76,15 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
             .build();
 
 
+    public static final PropertyDescriptor PROP_RECORD_CHUNK_SIZE = new PropertyDescriptor.Builder()
+            .name("record.chunk.size")
+            .displayName("批量处理记录数")
+            .description("每次交给处理器批量处理的记录数，为1时逐条处理；支持批量处理的处理器可将一批记录合并为一次交互。")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     protected volatile Serializable inputBuilder;
     protected volatile Serializable outputBuilder;
     protected volatile String writerSchemaStrategy;
@@ -116,6 +127,7 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
             InputStreamCallback callback = createCallback(this, getLogger(), flowFile, context, session);
             session.read(flowFile, callback);
             session.remove(flowFile);
+            adjustCounters(session);
         }catch (ProcessException e){
             throw e;
         }catch (Throwable e){
@@ -123,6 +135,13 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
         }
     }
 
+    /**
+     * 每个FlowFile处理完成后调用，子类可在这里通过session.adjustCounter把处理期间的统计数据（如缓存命中数）计入计数器
+     * @param session
+     */
+    protected void adjustCounters(ProcessSession session) {
+    }
+
     /**
      * 创建一个能够处理输入的回调
      * @param processor
@@ -149,34 +168,118 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
         try {
             output = handleProcessRow(attributes, input, original, context);
         } catch (BizException e) {  //自定义错误,不可重新运行错误
-            String errorMessage = ExceptionUtils.getStackTrace(e);
-            getLogger().warn("处理数据时出现错误，转移到失败队列：" + errorMessage);
-            String processorId = getIdentifier();
-            String processorName = getName();
-            FailureOutput failureOutput = new FailureOutput(processorId, processorName, input, errorMessage);
-            return new Tuple<>(REL_FAILURE, failureOutput);
+            return createFailureResult(REL_FAILURE, input, e);
         } catch (RetrieableException e) {   //自定义错误,可以重新运行的错误
-            String errorMessage = ExceptionUtils.getStackTrace(e);
-            getLogger().warn("处理数据时出现错误，转移到重试队列：" + errorMessage);
-            String processorId = getIdentifier();
-            String processorName = getName();
-            FailureOutput failureOutput = new FailureOutput(processorId, processorName, input, errorMessage);
-            return new Tuple<>(REL_RETRY, failureOutput);
+            return createFailureResult(REL_RETRY, input, e);
         } catch (Exception e) {
             throw e;
         } finally {
             output = buildOutput(input, output, attributes);
         }
 
-        //当输出结构策略为BOTH_INPUT_AND_OUTPUT/CUSTOMIZE时，都需要对input和output进行合并
+        return new Tuple<>(REL_SUCCESS, mergeOutput(input, output));
+    }
+
+    /**
+     * 对CallbackHandler的批量处理进行包装，成功的记录会执行输出构造脚本并按输出策略与输入合并
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws ProcessException
+     */
+    @Override
+    public final List<Tuple<Relationship, Output>> handleProcesses(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws ProcessException {
+        List<Input> buildedInputs = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            buildedInputs.add(buildInput(input, attributes)); // 对输入的Record进行处理和转换
+        }
+
+        List<Tuple<Relationship, Output>> rowResults = handleProcessRows(attributes, buildedInputs, original, context);
+        Validate.isTrue(rowResults != null && rowResults.size() == buildedInputs.size(), "批量处理的结果数量与输入记录数量不一致。");
+
+        List<Tuple<Relationship, Output>> results = new ArrayList<>(rowResults.size());
+        for (int i = 0; i < rowResults.size(); i++) {
+            Input input = buildedInputs.get(i);
+            Tuple<Relationship, Output> rowResult = rowResults.get(i);
+            if (REL_SUCCESS.equals(rowResult.getKey())) {
+                Output output = buildOutput(input, rowResult.getValue(), attributes);
+                results.add(new Tuple<>(REL_SUCCESS, mergeOutput(input, output)));
+            } else {
+                results.add(rowResult);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量处理多条记录，返回的结果与inputs一一对应，默认逐条调用handleProcessRow，支持批量交互的子类可改写该方法；
+     * 单条记录失败时可通过createFailureResult生成失败或重试结果，抛出BizException、RetrieableException以外的异常会中断整个处理过程
+     * @param attributes
+     * @param inputs
+     * @param flowFile
+     * @param context
+     * @return
+     * @throws ProcessException
+     */
+    protected List<Tuple<Relationship, Output>> handleProcessRows(Map<String, String> attributes, List<Input> inputs, FlowFile flowFile, ProcessContext context) throws ProcessException {
+        List<Tuple<Relationship, Output>> results = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            try {
+                results.add(new Tuple<>(REL_SUCCESS, handleProcessRow(attributes, input, flowFile, context)));
+            } catch (BizException e) {  //自定义错误,不可重新运行错误
+                results.add(createFailureResult(REL_FAILURE, input, e));
+            } catch (RetrieableException e) {   //自定义错误,可以重新运行的错误
+                results.add(createFailureResult(REL_RETRY, input, e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 创建失败或重试队列的处理结果
+     * @param relationship
+     * @param input
+     * @param e
+     * @return
+     */
+    protected Tuple<Relationship, Output> createFailureResult(Relationship relationship, Input input, Exception e) {
+        String errorMessage = ExceptionUtils.getStackTrace(e);
+        if (REL_RETRY.equals(relationship)) {
+            getLogger().warn("处理数据时出现错误，转移到重试队列：" + errorMessage);
+        } else {
+            getLogger().warn("处理数据时出现错误，转移到失败队列：" + errorMessage);
+        }
+        FailureOutput failureOutput = new FailureOutput(getIdentifier(), getName(), input, errorMessage);
+        return new Tuple<>(relationship, failureOutput);
+    }
+
+    /**
+     * 当输出结构策略为BOTH_INPUT_AND_OUTPUT/CUSTOMIZE时，都需要对input和output进行合并
+     * @param input
+     * @param output
+     * @return
+     */
+    private Output mergeOutput(Input input, Output output) {
         if (!WSS_ONLY_OUTPUT.equals(writerSchemaStrategy)) {
             Output inheritResult = new Output();
             inheritResult.putAll(input);
             inheritResult.putAll(output);
-            output = inheritResult;
+            return inheritResult;
         }
+        return output;
+    }
 
-        return new Tuple<>(REL_SUCCESS, output);
+    /**
+     * 取得批量处理的记录数，未配置该属性的处理器逐条处理
+     * @param context
+     * @return
+     */
+    public static int getChunkSize(ProcessContext context) {
+        PropertyValue value = context.getProperty(PROP_RECORD_CHUNK_SIZE);
+        Integer chunkSize = value == null ? null : value.asInteger();
+        return chunkSize == null || chunkSize < 1 ? 1 : chunkSize;
     }
 
     /**
@@ -194,17 +297,12 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
     protected abstract Output handleProcessRow(Map<String, String> attributes, Input input, FlowFile flowFile, ProcessContext context) throws ProcessException;
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         String inputScript = context.getProperty(PROP_RECORD_INPUT_BUILDER).getValue();
         String outputScript = context.getProperty(PROP_RECORD_OUTPUT_BUILDER).getValue();
 
-        if (StringUtils.isNotBlank(inputScript)) {
-            inputBuilder = MVEL.compileExpression(inputScript);
-        }
-
-        if (StringUtils.isNotBlank(outputScript)) {
-            outputBuilder = MVEL.compileExpression(outputScript);
-        }
+        inputBuilder = StringUtils.isNotBlank(inputScript) ? MVEL.compileExpression(inputScript) : null;
+        outputBuilder = StringUtils.isNotBlank(outputScript) ? MVEL.compileExpression(outputScript) : null;
 
         writerSchemaStrategy = context.getProperty(PROP_WRITER_SCHEMA_STRATEGY).getValue();
     }
@@ -104,18 +104,13 @@ public abstract class AbstractJsonPipelineProcessor extends AbstractXNifiProcess
 
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         String inputScript = context.getProperty(PROP_RECORD_INPUT_BUILDER).getValue();
         String outputScript = context.getProperty(PROP_RECORD_OUTPUT_BUILDER).getValue();
         batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
 
-        if (StringUtils.isNotBlank(inputScript)) {
-            inputBuilder = MVEL.compileExpression(inputScript);
-        }
-
-        if (StringUtils.isNotBlank(outputScript)) {
-            outputBuilder = MVEL.compileExpression(outputScript);
-        }
+        inputBuilder = StringUtils.isNotBlank(inputScript) ? MVEL.compileExpression(inputScript) : null;
+        outputBuilder = StringUtils.isNotBlank(outputScript) ? MVEL.compileExpression(outputScript) : null;
 
         writerSchemaStrategy = context.getProperty(PROP_WRITER_SCHEMA_STRATEGY).getValue();
     }
@@ -14,8 +14,9 @@ import java.util.List;
  * Created by MattU on 2018/1/25.
  */
 public abstract class AbstractRecordBatchProcessor extends AbstractBatchProcessor {
-    protected InputStreamCallback createCallback(ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session) {
-        return new RecordsProcessCallback(getLogger(), original, context, session, this);
+    @Override
+    protected InputStreamCallback createCallback(AbstractBatchProcessor processor, ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session) {
+        return new RecordsProcessCallback(logger, original, context, session, processor);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package io.activedata.xnifi.core.batch;
 
 import io.activedata.xnifi.core.*;
+import io.activedata.xnifi.exceptions.AllProcessFailedException;
 import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
 import io.activedata.xnifi.utils.RecordConverter;
 import io.activedata.xnifi.utils.ContextUtils;
@@ -28,8 +29,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -57,7 +61,7 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
     public static final PropertyDescriptor PROP_MAX_ERROR_COUNT = new PropertyDescriptor.Builder()
             .name("max.error.count")
             .displayName("最大错误数")
-            .description("每批数据处理的可以容忍的最大错误数量")
+            .description("每批数据处理的可以容忍的最大错误数量（包括超时和处理异常），超过后将中止处理并回滚整个FlowFile")
             .required(true)
             .defaultValue("10")
             .addValidator(StandardValidators.INTEGER_VALIDATOR)
@@ -66,13 +70,24 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
     public static final PropertyDescriptor PROP_PROCESS_TIMEOUT = new PropertyDescriptor.Builder()
             .name("processRecord.timeout")
             .displayName("处理超时时间（单位：毫秒）")
-            .description("每个任务的处理超时时间（单位：毫秒），默认5000毫秒")
+            .description("每条记录从提交开始计算的处理超时时间（单位：毫秒），包括在线程池队列中等待的时间，超时的任务将被取消并转移到重试队列，默认5000毫秒")
             .required(true)
             .defaultValue("5000")
             .addValidator(StandardValidators.LONG_VALIDATOR)
             .build();
 
-    private LinkedHashMap<CompletableFuture<Tuple<Relationship, Record>>, Record> futureMap = new LinkedHashMap<>();
+    public static final PropertyDescriptor PROP_MAX_IN_FLIGHT = new PropertyDescriptor.Builder()
+            .name("max.inflight.records")
+            .displayName("最大并发处理记录数")
+            .description("同时处于处理中的最大记录数，达到该数量后将按输入顺序等待最早提交的记录处理完成并写出，再继续读取，内存占用只与该值相关而与FlowFile大小无关。")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    private static final long SUBMIT_RETRY_INTERVAL_MILLIS = 10L;
+
+    private Deque<PendingRecord> inFlight = new ArrayDeque<>();
     private Map<Relationship, Tuple<FlowFile, RecordSetWriter>> writers = new HashMap<>();
     private AtomicInteger recordTotal = new AtomicInteger(0);
     private AtomicInteger recordError = new AtomicInteger(0);
@@ -87,26 +102,31 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
     private RecordReaderFactory readerFactory;
     private RecordSetWriterFactory writerFactory;
     private CallbackHandler handler;
+    private ExecutorService executor;
     private long processTimeout;
     private int maxErrorCount;
+    private int maxInFlight;
 
-    public AsyncRecordsProcessCallback(ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session, CallbackHandler handler) {
+    public AsyncRecordsProcessCallback(ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session, CallbackHandler handler, ExecutorService executor) {
         Validate.notNull(logger, "参数logger不能为null。");
         Validate.notNull(original, "参数original不能为null。");
         Validate.notNull(context, "参数context不能为null。");
         Validate.notNull(session, "参数session不能为null。");
         Validate.notNull(handler, "参数processHandler不能为null。");
+        Validate.notNull(executor, "参数executor不能为null，请确认处理器已被调度。");
 
         this.logger = logger;
         this.original = original;
         this.context = context;
         this.session = session;
         this.handler = handler;
+        this.executor = executor;
         this.readerFactory = context.getProperty(PROP_RECORD_READER).asControllerService(RecordReaderFactory.class);
         this.writerFactory = context.getProperty(PROP_RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
         this.attributes = ContextUtils.createAttributes(context, original);
         this.processTimeout = context.getProperty(PROP_PROCESS_TIMEOUT).asLong();
         this.maxErrorCount = context.getProperty(PROP_MAX_ERROR_COUNT).asInteger();
+        this.maxInFlight = context.getProperty(PROP_MAX_IN_FLIGHT).asInteger();
     }
 
     @Override
@@ -125,45 +145,49 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
 
             Record record;
             while ((record = reader.nextRecord()) != null) {
+                if (inFlight.size() >= maxInFlight) {
+                    waitForCompleted(inFlight.poll()); //窗口已满，先写出最早提交的记录
+                }
                 final Record recordData = record;
-                CompletableFuture future = CompletableFuture
-                        .supplyAsync(() -> processRecord(recordData, original, context));  //recordData原始数据
-//                        .exceptionally((e) -> {
-//                            logger.warn("执行请求时出现错误："+ ExceptionUtils.getStackTrace(e));
-//                            return new Tuple<>(AbstractBatchProcessor.REL_FAILURE, recordData);
-//                            //FIXME 应该放到Failure队列中
-//                        });
-                futureMap.put(future, recordData);
+                long deadline = System.currentTimeMillis() + processTimeout; //超时时间从提交时开始计算
+                Future<Tuple<Relationship, Record>> future = submit(() -> processRecord(recordData, original, context), deadline);  //recordData原始数据
+                if (future == null) {
+                    writeTimeout(recordData);
+                } else {
+                    inFlight.add(new PendingRecord(future, recordData, deadline));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                waitForCompleted(inFlight.poll());
             }
-            futureMap.keySet().stream().map(this::waitForCompleted).count();
             closeWriters();
+        } catch (final AllProcessFailedException e) {
+            cancelInFlight();
+            throw e;
         } catch (final Exception e) {
+            cancelInFlight();
             throw new InvalidEnvironmentException("处理输入流时出现问题：" + ExceptionUtils.getStackTrace(e));
         }
     }
 
-    protected Tuple<Relationship, Record> waitForCompleted(CompletableFuture<Tuple<Relationship, Record>> future) {
+    protected Tuple<Relationship, Record> waitForCompleted(PendingRecord pending) {
+        Future<Tuple<Relationship, Record>> future = pending.future;
+        Record originalRecord = pending.record;
         Tuple<Relationship, Record> result = null;
         try {
-            result = future.get(processTimeout, TimeUnit.MILLISECONDS);
-        } catch (TimeoutException | InterruptedException e) {  //超时异常和中断异常
-            logger.warn("等待数据处理完成时出现错误，该数据将被重新处理：" + ExceptionUtils.getStackTrace(e));
-            future.completeExceptionally(e);
-
-            int error = recordError.incrementAndGet();
-            if (error >= maxErrorCount) {
-                //throw new EnvironmentException("");
-            } else {
-                //logger.error("AAAAAAAAAAAAAA", e);
-                //throw new BizException(e);
-            }
-            Record originalRecord = futureMap.get(future);
+            long remaining = pending.deadline - System.currentTimeMillis();
+            result = future.get(Math.max(remaining, 0L), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {  //超时异常，取消仍在执行的任务
+            future.cancel(true);
+            logger.warn("数据处理超过{}毫秒仍未完成，已取消该任务，该数据将被重新处理。", new Object[]{processTimeout});
+            increaseError();
             result = new Tuple<>(AbstractBatchProcessor.REL_RETRY, originalRecord);
+        } catch (InterruptedException e) {  //中断异常，处理器正在停止
+            Thread.currentThread().interrupt();
+            throw new InvalidEnvironmentException("等待数据处理完成时线程被中断。", e);
         } catch (ExecutionException e) {  //线程异常
-            //logger.error("数据在处理过程中出现错误：", e);
-            future.completeExceptionally(e);
-            Record originalRecord = futureMap.get(future);
             originalRecord.setValue("errorMessage",e.getMessage());
+            increaseError();
             result = new Tuple<>(AbstractBatchProcessor.REL_FAILURE, originalRecord);
         }
 
@@ -176,6 +200,73 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
         }
     }
 
+    /**
+     * 提交任务，线程池已满时先写出最早提交的记录腾出位置；没有可写出的记录时（线程池被其他任务占满）重试提交直到超时
+     * @param task
+     * @param deadline 记录的处理截止时间
+     * @return 在截止时间之前仍无法提交时返回null
+     */
+    private Future<Tuple<Relationship, Record>> submit(Callable<Tuple<Relationship, Record>> task, long deadline) {
+        while (true) {
+            try {
+                return executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                if (executor.isShutdown()) {
+                    throw new InvalidEnvironmentException("处理线程池已关闭，处理器正在停止。", e);
+                }
+                if (!inFlight.isEmpty()) {
+                    waitForCompleted(inFlight.poll());
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                try {
+                    Thread.sleep(Math.min(remaining, SUBMIT_RETRY_INTERVAL_MILLIS));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InvalidEnvironmentException("等待提交数据处理任务时线程被中断。", ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * 截止时间之前未能提交的记录转移到重试队列
+     * @param originalRecord
+     */
+    private void writeTimeout(Record originalRecord) {
+        logger.warn("数据在{}毫秒内未能提交处理，该数据将被重新处理。", new Object[]{processTimeout});
+        increaseError();
+        try {
+            writeRecord(originalRecord, AbstractBatchProcessor.REL_RETRY);
+            recordTotal.incrementAndGet();
+        } catch (SchemaNotFoundException | IOException e) {
+            throw new InvalidEnvironmentException(e);
+        }
+    }
+
+    /**
+     * 累计错误数，超过最大错误数时中止整个FlowFile的处理
+     */
+    private void increaseError() {
+        int error = recordError.incrementAndGet();
+        if (error > maxErrorCount) {
+            throw new AllProcessFailedException("处理错误的记录数已超过最大错误数" + maxErrorCount + "，中止处理该FlowFile。");
+        }
+    }
+
+    /**
+     * 取消所有尚未完成的任务
+     */
+    private void cancelInFlight() {
+        PendingRecord pending;
+        while ((pending = inFlight.poll()) != null) {
+            pending.future.cancel(true);
+        }
+    }
+
     Tuple<Relationship, Record> processRecord(Record record, FlowFile flowFile, ProcessContext context) {
         Map<String, String> attributes = ContextUtils.createAttributes(context, flowFile);
         Map<String, Object> recordData = RecordConverter.convertToMap(record);
@@ -284,6 +375,21 @@ public class AsyncRecordsProcessCallback implements ProcessCallback {
         }
     }
 
+    /**
+     * 已提交但尚未写出的记录
+     */
+    protected static class PendingRecord {
+        private final Future<Tuple<Relationship, Record>> future;
+        private final Record record;
+        private final long deadline;
+
+        PendingRecord(Future<Tuple<Relationship, Record>> future, Record record, long deadline) {
+            this.future = future;
+            this.record = record;
+            this.deadline = deadline;
+        }
+    }
+
     private WriteResult closeWriter(RecordSetWriter writer) throws ProcessException {
         try {
             final WriteResult writeResult = writer.finishRecordSet();
@@ -9,6 +9,7 @@ import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.serialization.record.RecordField;
 import org.apache.nifi.util.Tuple;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -33,4 +34,22 @@ public interface CallbackHandler {
      * @throws ProcessException
      */
     Tuple<Relationship, Output> handleProcess(Map<String, String> attributes, Input input, FlowFile original, ProcessContext context) throws ProcessException;
+
+    /**
+     * 批量读取和处理FlowFile中的多条数据记录，返回的结果与inputs一一对应；
+     * 默认逐条调用handleProcess，可合并请求的实现可改写该方法，将多次交互合并为一次
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws ProcessException
+     */
+    default List<Tuple<Relationship, Output>> handleProcesses(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws ProcessException {
+        List<Tuple<Relationship, Output>> results = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            results.add(handleProcess(attributes, input, original, context));
+        }
+        return results;
+    }
 }
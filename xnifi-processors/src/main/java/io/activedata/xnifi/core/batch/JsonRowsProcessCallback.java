@@ -66,8 +66,14 @@ public class JsonRowsProcessCallback implements ProcessCallback {
         }
 
         if (jsonRows != null && jsonRows.size() > 0) {
-            for (Map jsonRow : jsonRows) {
-                processJsonRow(new Input(jsonRow));
+            int chunkSize = AbstractBatchProcessor.getChunkSize(context);
+            for (int i = 0; i < jsonRows.size(); i += chunkSize) {
+                List<Map> chunk = jsonRows.subList(i, Math.min(i + chunkSize, jsonRows.size()));
+                List<Input> inputs = new ArrayList<>(chunk.size());
+                for (Map jsonRow : chunk) {
+                    inputs.add(new Input(jsonRow));
+                }
+                processJsonRows(inputs);
             }
             writeAllJsonRows();
         }
@@ -78,16 +84,18 @@ public class JsonRowsProcessCallback implements ProcessCallback {
         return handler;
     }
 
-    protected void processJsonRow(Input input) {
-        Tuple<Relationship, Output> result = getHandler().handleProcess(attributes, input, original, context);
-        Relationship rel = result.getKey();
-        Output output = result.getValue();
-        List<Output> jsonRows = jsonRowsMap.get(rel);
-        if (jsonRows == null) {
-            jsonRows = new ArrayList<>();
-            jsonRowsMap.put(rel, jsonRows);
+    protected void processJsonRows(List<Input> inputs) {
+        List<Tuple<Relationship, Output>> results = getHandler().handleProcesses(attributes, inputs, original, context);
+        for (Tuple<Relationship, Output> result : results) {
+            Relationship rel = result.getKey();
+            Output output = result.getValue();
+            List<Output> jsonRows = jsonRowsMap.get(rel);
+            if (jsonRows == null) {
+                jsonRows = new ArrayList<>();
+                jsonRowsMap.put(rel, jsonRows);
+            }
+            jsonRows.add(output);
         }
-        jsonRows.add(output);
     }
 
     /**
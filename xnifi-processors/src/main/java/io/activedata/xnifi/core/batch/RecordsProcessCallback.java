@@ -26,7 +26,9 @@ import org.apache.nifi.util.Tuple;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -90,30 +92,44 @@ public class RecordsProcessCallback implements ProcessCallback {
     public void process(InputStream in) throws IOException {
         try (final RecordReader reader = readerFactory.createRecordReader(attributes, in, logger)) {
             final RecordSchema writeSchema = writerFactory.getSchema(attributes, reader.getSchema());
-                Record record;
-                while ((record = reader.nextRecord()) != null) {
-                    Tuple<Relationship, Record> result = processRecord(record, writeSchema, original, context);
-                    writeRecord(result.getValue(), result.getKey());
+            final int chunkSize = AbstractBatchProcessor.getChunkSize(context);
+            List<Record> chunk = new ArrayList<>(chunkSize);
+            Record record;
+            while ((record = reader.nextRecord()) != null) {
+                chunk.add(record);
+                if (chunk.size() >= chunkSize) {
+                    processAndWriteRecords(chunk, writeSchema, original, context);
+                    chunk = new ArrayList<>(chunkSize);
                 }
-                closeWriters();
+            }
+            if (!chunk.isEmpty()) {
+                processAndWriteRecords(chunk, writeSchema, original, context);
+            }
+            closeWriters();
         } catch (final Exception e) {
             throw new InvalidEnvironmentException("处理输入流时出现问题：" + ExceptionUtils.getStackTrace(e));
         }
     }
 
-    Tuple<Relationship, Record> processRecord(Record record, RecordSchema writeSchema, FlowFile flowFile, ProcessContext context){
+    void processAndWriteRecords(List<Record> records, RecordSchema writeSchema, FlowFile flowFile, ProcessContext context) throws IOException, SchemaNotFoundException {
         Map<String, String> attributes = ContextUtils.createAttributes(context, flowFile);
-        Map<String, Object> recordData = RecordConverter.convertToMap(record);
-        Input input = new Input(recordData);
-        Tuple<Relationship, Output> result = getHandler().handleProcess(attributes, input, flowFile, context);
-        Relationship rel = result.getKey();
-        Output output = result.getValue();
-        RecordSchema schema = writeSchema; //如果输出是普通输出，则使用已有writeSchema
-        if (output instanceof FailureOutput){
-            schema = FailureOutput.FAILURE_OUTPUT_SCHEMA;
+        List<Input> inputs = new ArrayList<>(records.size());
+        for (Record record : records) {
+            Map<String, Object> recordData = RecordConverter.convertToMap(record);
+            inputs.add(new Input(recordData));
+        }
+
+        List<Tuple<Relationship, Output>> results = getHandler().handleProcesses(attributes, inputs, flowFile, context);
+        for (Tuple<Relationship, Output> result : results) {
+            Relationship rel = result.getKey();
+            Output output = result.getValue();
+            RecordSchema schema = writeSchema; //如果输出是普通输出，则使用已有writeSchema
+            if (output instanceof FailureOutput){
+                schema = FailureOutput.FAILURE_OUTPUT_SCHEMA;
+            }
+            Record outputRecord = new MapRecord(schema, output);
+            writeRecord(outputRecord, rel);
         }
-        Record outputRecord = new MapRecord(schema, result.getValue());
-        return new Tuple<>(rel, outputRecord);
     }
 
     protected void writeRecords(Record record, Set<Relationship> relationships) throws IOException, SchemaNotFoundException {
@@ -0,0 +1,177 @@
+package io.activedata.xnifi.dbutils;
+
+import io.activedata.xnifi.utils.LruCache;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.lang3.Validate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个数据库连接上的PreparedStatement缓存，相同的SQL文本只预编译一次，在多条记录之间复用
+ * <p>
+ * 缓存按最近最少使用策略淘汰，被淘汰的语句会立即关闭；执行方法的语义与QueryRunner的同名方法一致。
+ * 缓存不负责关闭连接，使用完毕后需要先调用{@link #close()}关闭缓存的语句，再关闭连接
+ */
+public class PreparedStatementCache implements AutoCloseable {
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final Connection connection;
+    private final QueryRunner queryRunner;
+    private final LruCache<String, PreparedStatement> statements;
+
+    public PreparedStatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_SIZE, false);
+    }
+
+    /**
+     * @param connection
+     * @param maxSize 最多缓存的语句数量
+     * @param pmdKnownBroken 驱动不支持ParameterMetaData时设为true，与QueryRunner的同名参数含义相同
+     */
+    public PreparedStatementCache(Connection connection, int maxSize, boolean pmdKnownBroken) {
+        Validate.notNull(connection, "参数connection不能为null。");
+        this.connection = connection;
+        this.queryRunner = new QueryRunner(pmdKnownBroken);
+        this.statements = new LruCache<String, PreparedStatement>(maxSize) {
+            @Override
+            protected void onEvicted(String sql, PreparedStatement stmt) {
+                DbUtils.closeQuietly(stmt);
+            }
+        };
+    }
+
+    /**
+     * 取得SQL对应的PreparedStatement，已缓存时清除上次的参数后直接返回，不存在或已关闭时重新预编译
+     * <p>
+     * 返回的语句归缓存所有，调用方不能关闭
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * 执行INSERT/UPDATE/DELETE等语句
+     * @param sql
+     * @param params
+     * @return 影响的行数
+     * @throws SQLException
+     */
+    public synchronized int update(String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        queryRunner.fillStatement(stmt, params);
+        return stmt.executeUpdate();
+    }
+
+    /**
+     * 执行查询语句
+     * @param sql
+     * @param rsh
+     * @param params
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public synchronized <T> T query(String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        queryRunner.fillStatement(stmt, params);
+        ResultSet rs = null;
+        try {
+            rs = stmt.executeQuery();
+            return rsh.handle(rs);
+        } finally {
+            DbUtils.close(rs);
+        }
+    }
+
+    /**
+     * 执行任意语句（包括存储过程），不读取结果集
+     * @param sql
+     * @param params
+     * @return 影响的行数
+     * @throws SQLException
+     */
+    public synchronized int execute(String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        queryRunner.fillStatement(stmt, params);
+        stmt.execute();
+        return stmt.getUpdateCount();
+    }
+
+    /**
+     * 执行任意语句（包括存储过程），依次处理返回的所有结果集
+     * @param sql
+     * @param rsh
+     * @param params
+     * @param <T>
+     * @return 每个结果集的处理结果
+     * @throws SQLException
+     */
+    public synchronized <T> List<T> execute(String sql, ResultSetHandler<T> rsh, Object... params) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        queryRunner.fillStatement(stmt, params);
+        List<T> results = new ArrayList<>();
+        boolean moreResultSets = stmt.execute();
+        while (moreResultSets) {
+            ResultSet rs = stmt.getResultSet();
+            try {
+                results.add(rsh.handle(rs));
+                moreResultSets = stmt.getMoreResults();
+            } finally {
+                DbUtils.close(rs);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 使用同一个语句批量执行多组参数
+     * @param sql
+     * @param paramsList
+     * @return 每组参数影响的行数
+     * @throws SQLException
+     */
+    public synchronized int[] executeBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        PreparedStatement stmt = prepare(sql);
+        try {
+            for (Object[] params : paramsList) {
+                queryRunner.fillStatement(stmt, params);
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        } finally {
+            stmt.clearBatch();
+        }
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * 关闭所有缓存的语句，不关闭连接
+     */
+    @Override
+    public synchronized void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            DbUtils.closeQuietly(stmt);
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,62 @@
+package io.activedata.xnifi.dbutils;
+
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
+import org.apache.nifi.dbcp.DBCPService;
+
+import java.sql.SQLException;
+
+/**
+ * 将{@link TransactionalConnection}绑定到执行onTrigger的线程，使并发执行的多个任务各自拥有独立的连接和事务
+ * <p>
+ * 处理器在beforeProcess中调用begin，在beforeCommit中调用commit，在onRollback中调用rollback，在afterProcess中调用end
+ */
+public class ThreadBoundTransaction {
+    private final ThreadLocal<TransactionalConnection> current = new ThreadLocal<>();
+
+    /**
+     * 开始新的事务，此时并不取得连接
+     * @param dbcpService
+     */
+    public void begin(DBCPService dbcpService) {
+        end();
+        current.set(new TransactionalConnection(dbcpService));
+    }
+
+    /**
+     * 取得当前线程的事务性连接
+     * @return
+     * @throws InvalidEnvironmentException 当前线程没有开始事务时抛出
+     */
+    public TransactionalConnection get() throws InvalidEnvironmentException {
+        TransactionalConnection connection = current.get();
+        if (connection == null) {
+            throw new InvalidEnvironmentException("当前线程没有开始数据库事务，只能在onTrigger线程中访问数据库连接。");
+        }
+        return connection;
+    }
+
+    public void commit() throws SQLException {
+        TransactionalConnection connection = current.get();
+        if (connection != null) {
+            connection.commit();
+        }
+    }
+
+    public void rollback() {
+        TransactionalConnection connection = current.get();
+        if (connection != null) {
+            connection.rollback();
+        }
+    }
+
+    /**
+     * 结束事务并归还连接
+     */
+    public void end() {
+        TransactionalConnection connection = current.get();
+        current.remove();
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
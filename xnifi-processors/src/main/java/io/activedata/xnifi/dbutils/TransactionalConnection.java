@@ -0,0 +1,169 @@
+package io.activedata.xnifi.dbutils;
+
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
+import io.activedata.xnifi.exceptions.RetrieableException;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.nifi.dbcp.DBCPService;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * 一次onTrigger内使用的事务性数据库连接
+ * <p>
+ * 第一次使用时才从连接池取得连接并关闭自动提交，之后整个onTrigger内的所有记录都使用同一个连接和同一个事务；
+ * 由处理器在会话提交前调用{@link #commit()}、在会话回滚时调用{@link #rollback()}，最后调用{@link #close()}归还连接。
+ * 对象不是线程安全的，只能在onTrigger线程中使用
+ */
+public class TransactionalConnection implements AutoCloseable {
+    private final DBCPService dbcpService;
+    private Connection connection;
+    private boolean originalAutoCommit;
+    private PreparedStatementCache statementCache;
+
+    public TransactionalConnection(DBCPService dbcpService) {
+        Validate.notNull(dbcpService, "参数dbcpService不能为null。");
+        this.dbcpService = dbcpService;
+    }
+
+    /**
+     * 取得连接，第一次调用时从连接池取得
+     * @return
+     * @throws RetrieableException 连接池无法提供连接时抛出
+     */
+    public Connection getConnection() throws RetrieableException {
+        if (connection == null) {
+            Connection conn = null;
+            try {
+                conn = dbcpService.getConnection();
+                originalAutoCommit = conn.getAutoCommit();
+                if (originalAutoCommit) {
+                    conn.setAutoCommit(false);
+                }
+            } catch (Exception e) {
+                DbUtils.closeQuietly(conn);
+                throw new RetrieableException("取得数据库连接失败：", e);
+            }
+            connection = conn;
+            statementCache = new PreparedStatementCache(conn);
+        }
+        return connection;
+    }
+
+    /**
+     * 取得当前连接上的PreparedStatement缓存，必要时先取得连接
+     * @return
+     * @throws RetrieableException
+     */
+    public PreparedStatementCache getStatementCache() throws RetrieableException {
+        getConnection();
+        return statementCache;
+    }
+
+    /**
+     * 是否已经取得连接，没有取得连接说明本次onTrigger没有访问数据库
+     * @return
+     */
+    public boolean isAcquired() {
+        return connection != null;
+    }
+
+    /**
+     * 在保存点内执行一条记录的SQL操作，出错时只回滚该记录的修改，事务中其他记录的修改不受影响
+     * <p>
+     * PostgreSQL在语句出错后整个事务进入中止状态，必须回滚到保存点才能继续执行；死锁、序列化失败等
+     * 事务回滚类错误（SQLState以40开头）或回滚到保存点失败时，数据库可能已经回滚了整个事务，此时抛出
+     * InvalidEnvironmentException中止本次会话，而不是只将该记录转入失败队列
+     * @param action
+     * @param <T>
+     * @return
+     * @throws SQLException 该记录执行失败且事务仍然可用时抛出
+     */
+    public <T> T executeInSavepoint(SqlAction<T> action) throws SQLException {
+        Connection conn = getConnection();
+        Savepoint savepoint = conn.setSavepoint();
+        T result;
+        try {
+            result = action.execute();
+        } catch (SQLException e) {
+            rollbackTo(conn, savepoint, e);
+            String sqlState = e.getSQLState();
+            if (sqlState != null && sqlState.startsWith("40")) {
+                throw new InvalidEnvironmentException("数据库事务已被回滚：", e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            rollbackTo(conn, savepoint, e);
+            throw e;
+        }
+        releaseSavepoint(conn, savepoint);
+        return result;
+    }
+
+    private static void rollbackTo(Connection conn, Savepoint savepoint, Exception cause) {
+        try {
+            conn.rollback(savepoint);
+        } catch (SQLException e) {
+            e.addSuppressed(cause);
+            throw new InvalidEnvironmentException("回滚到保存点失败，数据库事务已不可用：", e);
+        }
+    }
+
+    /**
+     * 释放保存点，部分驱动不支持释放保存点，忽略其错误
+     * @param conn
+     * @param savepoint
+     */
+    public static void releaseSavepoint(Connection conn, Savepoint savepoint) {
+        try {
+            conn.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            //保存点会在事务结束时自动释放
+        }
+    }
+
+    public void commit() throws SQLException {
+        if (connection != null) {
+            connection.commit();
+        }
+    }
+
+    public void rollback() {
+        if (connection != null) {
+            DbUtils.rollbackQuietly(connection);
+        }
+    }
+
+    /**
+     * 关闭缓存的语句并归还连接，尚未提交的修改会被回滚
+     */
+    @Override
+    public void close() {
+        if (connection == null) {
+            return;
+        }
+
+        statementCache.close();
+        DbUtils.rollbackQuietly(connection);
+        try {
+            if (originalAutoCommit) {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            //连接可能已经失效，直接归还连接池
+        }
+        DbUtils.closeQuietly(connection);
+        connection = null;
+        statementCache = null;
+    }
+
+    /**
+     * 需要在保存点内执行的SQL操作
+     * @param <T>
+     */
+    public interface SqlAction<T> {
+        T execute() throws SQLException;
+    }
+}
@@ -0,0 +1,97 @@
+package io.activedata.xnifi.dbutils.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 编译后的命名参数SQL模板，包含原生SQL、按出现顺序排列的参数名以及参数名到参数位置（从1开始）的映射
+ * <p>
+ * 对象创建后不可变，可在多个线程和多条记录之间共享，通过{@link NamedParamSqlUtils#compile(String)}创建
+ */
+public class NamedParamSql {
+    private final String sql;
+    private final String nativeSql;
+    private final String[] paramNames;
+    private final Map<String, int[]> paramIndexes;
+
+    NamedParamSql(String sql, String nativeSql, String[] paramNames) {
+        this.sql = sql;
+        this.nativeSql = nativeSql;
+        this.paramNames = paramNames;
+
+        Map<String, List<Integer>> indexLists = new HashMap<>();
+        for (int i = 0; i < paramNames.length; i++) {
+            indexLists.computeIfAbsent(paramNames[i], k -> new ArrayList<>()).add(i + 1);
+        }
+        Map<String, int[]> indexes = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : indexLists.entrySet()) {
+            indexes.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        this.paramIndexes = Collections.unmodifiableMap(indexes);
+    }
+
+    /**
+     * 原始的命名参数SQL
+     * @return
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 将命名参数替换为?后的原生SQL
+     * @return
+     */
+    public String getNativeSql() {
+        return nativeSql;
+    }
+
+    /**
+     * 按出现顺序排列的参数名，同名参数出现多次时重复列出
+     * @return
+     */
+    public String[] getParamNames() {
+        return paramNames.clone();
+    }
+
+    public int getParamCount() {
+        return paramNames.length;
+    }
+
+    public boolean hasParams() {
+        return paramNames.length > 0;
+    }
+
+    /**
+     * 取得参数在原生SQL中的位置（从1开始），参数不存在时返回空数组
+     * @param paramName
+     * @return
+     */
+    public int[] getParamIndexes(String paramName) {
+        int[] indexes = paramIndexes.get(paramName);
+        return indexes == null ? new int[0] : indexes.clone();
+    }
+
+    /**
+     * 按参数顺序取得参数值
+     * @param valueResolver 根据参数名取得参数值
+     * @return
+     */
+    public Object[] getParams(Function<String, Object> valueResolver) {
+        Object[] params = new Object[paramNames.length];
+        for (int i = 0; i < paramNames.length; i++) {
+            params[i] = valueResolver.apply(paramNames[i]);
+        }
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return nativeSql + " " + Arrays.toString(paramNames);
+    }
+}
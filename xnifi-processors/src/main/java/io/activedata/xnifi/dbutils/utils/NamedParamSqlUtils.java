@@ -1,7 +1,9 @@
 package io.activedata.xnifi.dbutils.utils;
 
+import io.activedata.xnifi.utils.LruCache;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -16,6 +18,34 @@ public class NamedParamSqlUtils {
 
     private static final Pattern PTN_NAMED_PARAMS = Pattern.compile("[(,\\s](:\\w+)");
 
+    private static final int COMPILED_CACHE_SIZE = 256;
+
+    private static final LruCache<String, NamedParamSql> COMPILED_CACHE = new LruCache<>(COMPILED_CACHE_SIZE);
+
+    /**
+     * 编译含有命名参数的SQL，一次扫描同时得到原生SQL和参数名；编译结果按SQL文本缓存，相同的SQL只编译一次
+     * @param sql
+     * @return
+     */
+    public static NamedParamSql compile(String sql) {
+        Validate.notNull(sql, "参数sql不能为null。");
+        return COMPILED_CACHE.get(sql, NamedParamSqlUtils::doCompile);
+    }
+
+    private static NamedParamSql doCompile(String sql) {
+        Matcher matcher = PTN_NAMED_PARAMS.matcher(sql);
+        List<String> names = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(sql.length());
+        int last = 0;
+        while (matcher.find()) {
+            names.add(matcher.group(1).substring(1));
+            sb.append(sql, last, matcher.start(1)).append('?');
+            last = matcher.end(1);
+        }
+        sb.append(sql, last, sql.length());
+        return new NamedParamSql(sql, sb.toString(), names.toArray(EMPTY_NAMES));
+    }
+
     /**
      * 读取SQL中的命名参数（即':'开头的变量）
      * @param sql
@@ -1,11 +1,18 @@
 package io.activedata.xnifi.processors.elasticsearch;
 
 import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.activedata.xnifi.core.AbstractXNifiProcessor;
 import jodd.bean.BeanUtil;
 import okhttp3.*;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -13,13 +20,16 @@ import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.proxy.ProxyConfiguration;
 import org.apache.nifi.proxy.ProxySpec;
 import org.apache.nifi.ssl.SSLContextService;
+import org.apache.nifi.stream.io.StreamUtils;
 import org.apache.nifi.util.StringUtils;
 
 import javax.net.ssl.SSLContext;
@@ -27,7 +37,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Proxy;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -107,6 +120,34 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
             .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
             .build();
 
+    public static final PropertyDescriptor MAX_IDLE_CONNECTIONS = new PropertyDescriptor.Builder()
+            .name("elasticsearch-http-max-idle-connections")
+            .displayName("最大空闲连接数")
+            .description("连接池中保持的最大空闲连接数，默认为5个；连接池在处理器启动时创建，在所有触发和并发任务之间共用。")
+            .required(true)
+            .defaultValue("5")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor KEEP_ALIVE = new PropertyDescriptor.Builder()
+            .name("elasticsearch-http-keep-alive")
+            .displayName("空闲连接保持时间")
+            .description("空闲连接在连接池中保持的时间，超过后关闭，默认为5分钟。")
+            .required(true)
+            .defaultValue("5 mins")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION = new PropertyDescriptor.Builder()
+            .name("elasticsearch-http-compression")
+            .displayName("启用请求压缩")
+            .description("是否使用gzip压缩请求体，默认为false。响应的压缩由客户端自动协商并解压，ES需开启http.compression。")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
     public static final PropertyDescriptor PROP_SSL_CONTEXT_SERVICE = new PropertyDescriptor.Builder()
             .name("ssl-context-service")
             .displayName("TLS/SSL上下文服务（可选）")
@@ -142,7 +183,10 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
             .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
             .build();
 
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     private final AtomicReference<OkHttpClient> okHttpClientAtomicReference = new AtomicReference<>();
+    private volatile boolean compressRequests;
 
     @Override
     protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(String propertyDescriptorName) {
@@ -168,6 +212,9 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
         properties.add(PASSWORD);
         properties.add(CONNECT_TIMEOUT);
         properties.add(RESPONSE_TIMEOUT);
+        properties.add(MAX_IDLE_CONNECTIONS);
+        properties.add(KEEP_ALIVE);
+        properties.add(COMPRESSION);
 //        properties.add(PROXY_CONFIGURATION_SERVICE);
 //        properties.add(PROXY_HOST);
 //        properties.add(PROXY_PORT);
@@ -177,11 +224,35 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
         COMMON_PROPERTY_DESCRIPTORS = Collections.unmodifiableList(properties);
     }
 
+    /**
+     * 处理器启动时创建OkHttpClient，其连接池、SSL配置和调度线程在所有触发和并发任务之间共用，停止时在cleanup中释放
+     *
+     * @param context
+     * @throws ProcessException
+     */
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+        createElasticsearchClient(context);
+    }
+
     protected void createElasticsearchClient(ProcessContext context) throws ProcessException {
         okHttpClientAtomicReference.set(null);
 
         OkHttpClient.Builder okHttpClient = new OkHttpClient.Builder();
 
+        // 异步请求由Dispatcher调度，默认每个主机最多5个，需要覆盖所有并发任务的在途请求
+        int maxConcurrentRequests = getMaxConcurrentRequests(context) * Math.max(1, context.getMaxConcurrentTasks());
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxConcurrentRequests));
+        dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), maxConcurrentRequests));
+        okHttpClient.dispatcher(dispatcher);
+
+        // 保持与ES的长连接，避免每次请求重新建立连接和SSL握手
+        okHttpClient.connectionPool(new ConnectionPool(context.getProperty(MAX_IDLE_CONNECTIONS).asInteger(),
+                context.getProperty(KEEP_ALIVE).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS));
+        compressRequests = context.getProperty(COMPRESSION).asBoolean();
+
         // Add a proxy if set
         final ProxyConfiguration proxyConfig = ProxyConfiguration.getConfiguration(context, () -> {
             final String proxyHost = context.getProperty(PROXY_HOST).evaluateAttributeExpressions().getValue();
@@ -247,6 +318,26 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
         return results;
     }
 
+    @Override
+    protected void cleanup() {
+        OkHttpClient client = okHttpClientAtomicReference.getAndSet(null);
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+        super.cleanup();
+    }
+
+    /**
+     * 每个任务同时在途的最大请求数，用于设置Dispatcher的并发上限，子类支持并发请求时覆盖
+     *
+     * @param context
+     * @return
+     */
+    protected int getMaxConcurrentRequests(ProcessContext context) {
+        return 1;
+    }
+
     protected OkHttpClient getClient() {
         return okHttpClientAtomicReference.get();
     }
@@ -258,11 +349,62 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
     protected Response sendRequestToElasticsearch(OkHttpClient client, URL url, String username, String password, String verb, RequestBody body) throws IOException {
 
         final ComponentLog log = getLogger();
+        Request httpRequest = buildElasticsearchRequest(url, username, password, verb, body);
+        log.debug("发送请求到ES服务器{}。", new Object[]{url});
+
+        Response responseHttp = client.newCall(httpRequest).execute();
+
+        // store the status code and message
+        int statusCode = responseHttp.code();
+
+        if (statusCode == 0) {
+            throw new IllegalStateException("Status code unknown, connection hasn't been attempted.");
+        }
+
+        log.debug("Received response from Elasticsearch with status code {}", new Object[]{statusCode});
+
+        return responseHttp;
+    }
+
+    /**
+     * 以异步方式发送请求，请求由OkHttp的调度线程执行，调用方负责关闭得到的响应
+     *
+     * @param client
+     * @param url
+     * @param username
+     * @param password
+     * @param verb
+     * @param body
+     * @return
+     */
+    protected CompletableFuture<Response> sendRequestToElasticsearchAsync(OkHttpClient client, URL url, String username, String password, String verb, RequestBody body) {
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        Request httpRequest = buildElasticsearchRequest(url, username, password, verb, body);
+        getLogger().debug("发送请求到ES服务器{}。", new Object[]{url});
+        client.newCall(httpRequest).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                future.complete(response);
+            }
+        });
+        return future;
+    }
+
+    private Request buildElasticsearchRequest(URL url, String username, String password, String verb, RequestBody body) {
         Request.Builder requestBuilder = new Request.Builder()
                 .url(url);
         if ("get".equalsIgnoreCase(verb)) {
             requestBuilder = requestBuilder.get();
         } else if ("put".equalsIgnoreCase(verb)) {
+            if (compressRequests) {
+                requestBuilder = requestBuilder.header("Content-Encoding", "gzip");
+                body = gzip(body);
+            }
             requestBuilder = requestBuilder.put(body);
         } else {
             throw new IllegalArgumentException("不支持的ES REST API verb: " + verb);
@@ -272,21 +414,34 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
             String credential = Credentials.basic(username, password);
             requestBuilder = requestBuilder.header("Authorization", credential);
         }
-        Request httpRequest = requestBuilder.build();
-        log.debug("发送请求到ES服务器{}。", new Object[]{url});
-
-        Response responseHttp = client.newCall(httpRequest).execute();
-
-        // store the status code and message
-        int statusCode = responseHttp.code();
+        return requestBuilder.build();
+    }
 
-        if (statusCode == 0) {
-            throw new IllegalStateException("Status code unknown, connection hasn't been attempted.");
-        }
+    /**
+     * 发送时边写边压缩请求体，压缩后的长度未知，使用分块传输
+     *
+     * @param body
+     * @return
+     */
+    private static RequestBody gzip(final RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
 
-        log.debug("Received response from Elasticsearch with status code {}", new Object[]{statusCode});
+            @Override
+            public long contentLength() {
+                return -1;
+            }
 
-        return responseHttp;
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                body.writeTo(gzipSink);
+                gzipSink.close();
+            }
+        };
     }
 
     protected JsonNode parseJsonResponse(InputStream in) throws IOException {
@@ -295,102 +450,153 @@ public abstract class AbstractElasticsearchProcessor extends AbstractXNifiProces
     }
 
     /**
-     * 创建批处理命令
+     * 读取FlowFile内容，统一转为UTF-8编码
      *
-     * @param sb
-     * @param index
-     * @param docType
-     * @param indexOp
-     * @param idAttr
-     * @param rows
+     * @param session
+     * @param flowFile
+     * @param charset
+     * @return
      */
-    protected void buildCmdBatch(StringBuilder sb, String index, String docType, String indexOp, String idAttr, List<Map> rows) {
-        for (Map row : rows) {
-            String id = Objects.toString(BeanUtil.silent.getProperty(row, idAttr), "");
-            if ("index".equalsIgnoreCase(indexOp)) {
-                buildIndexCmd(sb, index, docType, indexOp, id, row);
-            } else if ("update".equalsIgnoreCase(indexOp) || "upsert".equalsIgnoreCase(indexOp)) {
-                buildUpdateCmd(sb, index, docType, indexOp, id, row);
-            } else if ("delete".equalsIgnoreCase(indexOp)) {
-                buildDeleteCmd(sb, index, docType, indexOp, id, row);
-            }
+    protected byte[] readContent(ProcessSession session, FlowFile flowFile, Charset charset) {
+        final byte[] content = new byte[(int) flowFile.getSize()];
+        session.read(flowFile, in -> StreamUtils.fillBuffer(in, content, true));
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return content;
         }
+        return new String(content, charset).getBytes(StandardCharsets.UTF_8);
     }
 
     /**
-     * 创建插入索引的命令，格式如下：
-     * { "index" : { "_index" : "test", "_type" : "type1", "_id" : "1" } }\n
-     * { "field1" : "value1" }\n
+     * 创建批处理命令，content为JSON ROW数组或单个JSON ROW，文档行直接引用content中每个ROW的字节
+     * <p>
+     * content不是标准JSON时（如[{id:3}]），按fastjson解析后重新序列化每个ROW作为文档行
      *
-     * @param sb
+     * @param content UTF-8编码的FlowFile内容
      * @param index
      * @param docType
      * @param indexOp
-     * @param id
-     * @param row
+     * @param idAttr
+     * @return
+     * @throws IOException 内容不是有效的JSON ROW时抛出
      */
-    private void buildIndexCmd(StringBuilder sb, String index, String docType, String indexOp, String id, Map row) {
-        sb.append("{\"index\": { \"_index\": \"");
-        sb.append(StringEscapeUtils.escapeJson(index));
-        sb.append("\", \"_type\": \"");
-        sb.append(StringEscapeUtils.escapeJson(docType));
-        sb.append("\"");
-        if (!StringUtils.isEmpty(id)) {
-            sb.append(", \"_id\": \"");
-            sb.append(StringEscapeUtils.escapeJson(id));
-            sb.append("\"");
+    protected List<BulkRequestBody.Item> buildBulkItems(byte[] content, String index, String docType, String indexOp, String idAttr) throws IOException {
+        try {
+            return buildBulkItemsStrict(content, index, docType, indexOp, idAttr);
+        } catch (JsonProcessingException e) {
+            // 标准JSON解析失败时按fastjson的宽松语法（如不带引号的属性名）解析，再重新序列化为标准JSON
+            return buildBulkItemsLenient(content, index, docType, indexOp, idAttr, e);
         }
-        sb.append("}}\n");
-        sb.append(JSON.toJSONString(row) + "\n");
     }
 
-    /**
-     * 创建更新或者插入更新的索引的命令，格式如下：
-     * { "update" : {"_id" : "1", "_type" : "type1", "_index" : "test"} }\n
-     * { "doc" : {"field2" : "value2", "doc_as_upsert":false} }\n
-     * {"update" : {"_id" : "1", "_type" : "type1", "_index" : "test"} }\n
-     * { "doc" : {"field2" : "value2", "doc_as_upsert":true} }\n
-     *
-     * @param sb
-     * @param index
-     * @param docType
-     * @param indexOp
-     * @param id
-     * @param row
-     */
-    private void buildUpdateCmd(StringBuilder sb, String index, String docType, String indexOp, String id, Map row) {
-        sb.append("{\"update\": { \"_index\": \"");
-        sb.append(StringEscapeUtils.escapeJson(index));
-        sb.append("\", \"_type\": \"");
-        sb.append(StringEscapeUtils.escapeJson(docType));
-        sb.append("\", \"_id\": \"");
-        sb.append(StringEscapeUtils.escapeJson(id));
-        sb.append("\" }\n");
-        sb.append("{\"doc\": ");
-        sb.append(JSON.toJSONString(row));
-        sb.append(", \"doc_as_upsert\": ");
-        sb.append(indexOp.equalsIgnoreCase("upsert"));
-        sb.append(" }\n");
+    private List<BulkRequestBody.Item> buildBulkItemsStrict(byte[] content, String index, String docType, String indexOp, String idAttr) throws IOException {
+        List<BulkRequestBody.Item> items = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(content)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return items;
+            }
+            if (token == JsonToken.START_OBJECT) {
+                items.add(buildBulkItem(parser, content, index, docType, indexOp, idAttr));
+            } else if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IOException("不支持的数据类型：" + token);
+                    }
+                    items.add(buildBulkItem(parser, content, index, docType, indexOp, idAttr));
+                }
+            } else {
+                throw new IOException("不支持的数据类型：" + token);
+            }
+        }
+        return items;
+    }
+
+    private List<BulkRequestBody.Item> buildBulkItemsLenient(byte[] content, String index, String docType, String indexOp, String idAttr, IOException cause) throws IOException {
+        Object result;
+        try {
+            result = JSON.parse(new String(content, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+            throw cause;
+        }
+
+        List<Object> rows;
+        if (result == null) {
+            rows = Collections.emptyList();
+        } else if (result instanceof List) {
+            rows = (List<Object>) result;
+        } else if (result instanceof Map) {
+            rows = Collections.singletonList(result);
+        } else {
+            throw new IOException("不支持的数据类型：" + result.getClass().getSimpleName());
+        }
+
+        List<BulkRequestBody.Item> items = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            if (!(row instanceof Map)) {
+                throw new IOException("不支持的数据类型：" + (row == null ? null : row.getClass().getSimpleName()));
+            }
+            byte[] source = JSON.toJSONString(row).getBytes(StandardCharsets.UTF_8);
+            items.add(buildBulkItem((Map) row, source, 0, source.length, index, docType, indexOp, idAttr));
+        }
+        return items;
+    }
+
+    private BulkRequestBody.Item buildBulkItem(JsonParser parser, byte[] content, String index, String docType, String indexOp, String idAttr) throws IOException {
+        int start = (int) parser.getTokenLocation().getByteOffset();
+        parser.skipChildren();
+        int end = (int) parser.getCurrentLocation().getByteOffset();
+
+        Map row = null;
+        if (!StringUtils.isEmpty(idAttr)) {
+            row = JSON.parseObject(new String(content, start, end - start, StandardCharsets.UTF_8)); // 只有需要ID时才解析ROW
+        }
+        return buildBulkItem(row, content, start, end - start, index, docType, indexOp, idAttr);
+    }
+
+    private BulkRequestBody.Item buildBulkItem(Map row, byte[] content, int start, int length, String index, String docType, String indexOp, String idAttr) {
+        String id = "";
+        if (row != null && !StringUtils.isEmpty(idAttr)) {
+            id = Objects.toString(BeanUtil.silent.getProperty(row, idAttr), "");
+        }
+
+        int end = start + length;
+        if ("update".equalsIgnoreCase(indexOp) || "upsert".equalsIgnoreCase(indexOp)) {
+            return new BulkRequestBody.Item(buildActionLine("update", index, docType, id), "{\"doc\": ", content, start, end - start,
+                    ", \"doc_as_upsert\": " + indexOp.equalsIgnoreCase("upsert") + " }");
+        } else if ("delete".equalsIgnoreCase(indexOp)) {
+            return new BulkRequestBody.Item(buildActionLine("delete", index, docType, id), content, start, end - start);
+        } else {
+            return new BulkRequestBody.Item(buildActionLine("index", index, docType, id), null, content, start, end - start, null);
+        }
     }
 
     /**
-     * 创建删除命令，格式如下：
+     * 创建命令行，格式如下：
+     * { "index" : { "_index" : "test", "_type" : "type1", "_id" : "1" } }
+     * { "update" : { "_index" : "test", "_type" : "type1", "_id" : "1" } }
      * { "delete" : { "_index" : "test", "_type" : "type1", "_id" : "2" } }
-     * @param sb
+     * index命令的id为空时由ES生成
+     *
+     * @param op
      * @param index
      * @param docType
-     * @param indexOp
      * @param id
-     * @param row
+     * @return
      */
-    private void buildDeleteCmd(StringBuilder sb, String index, String docType, String indexOp, String id, Map row) {
-        sb.append("{\"delete\": { \"_index\": \"");
+    private String buildActionLine(String op, String index, String docType, String id) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"").append(op).append("\": { \"_index\": \"");
         sb.append(StringEscapeUtils.escapeJson(index));
         sb.append("\", \"_type\": \"");
         sb.append(StringEscapeUtils.escapeJson(docType));
-        sb.append("\", \"_id\": \"");
-        sb.append(StringEscapeUtils.escapeJson(id));
-        sb.append("\" }\n");
+        sb.append("\"");
+        if (!"index".equals(op) || !StringUtils.isEmpty(id)) {
+            sb.append(", \"_id\": \"");
+            sb.append(StringEscapeUtils.escapeJson(id));
+            sb.append("\"");
+        }
+        sb.append(" }}");
+        return sb.toString();
     }
 }
-
@@ -0,0 +1,201 @@
+package io.activedata.xnifi.processors.elasticsearch;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.apache.nifi.flowfile.FlowFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ES批量请求体，发送时逐条把NDJSON格式的命令行和文档行写入连接，不在内存中拼接完整的请求文本
+ * <p>
+ * 文档行直接引用FlowFile内容中对应的字节，不经过反序列化和再序列化，可以重复写出以支持连接失败后的重试
+ */
+public class BulkRequestBody extends RequestBody {
+    public static final MediaType CONTENT_TYPE = MediaType.parse("application/x-ndjson");
+
+    private final List<Item> items = new ArrayList<>();
+    private final List<FlowFile> flowFiles = new ArrayList<>();
+    private final List<Integer> rows = new ArrayList<>();
+    private long contentLength;
+
+    public void add(Item item) {
+        add(item, null, -1);
+    }
+
+    /**
+     * 添加命令并记录其来源，以便按响应中的items将结果对应回FlowFile及其中的ROW
+     * @param item
+     * @param flowFile 命令所属的FlowFile
+     * @param row 命令对应的ROW在FlowFile中的序号
+     */
+    public void add(Item item, FlowFile flowFile, int row) {
+        items.add(item);
+        flowFiles.add(flowFile);
+        rows.add(row);
+        contentLength += item.contentLength();
+    }
+
+    public void addAll(Collection<Item> items) {
+        for (Item item : items) {
+            add(item);
+        }
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public FlowFile getFlowFile(int i) {
+        return flowFiles.get(i);
+    }
+
+    public int getRow(int i) {
+        return rows.get(i);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public MediaType contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        for (Item item : items) {
+            item.writeTo(sink);
+        }
+    }
+
+    /**
+     * 批量请求中的一条命令，由命令行和可选的文档行组成
+     */
+    public static class Item {
+        private static final byte CR = '\r';
+        private static final byte LF = '\n';
+
+        private final byte[] action;
+        private final byte[] sourcePrefix;
+        private final byte[] source;
+        private final int sourceOffset;
+        private final int sourceLength;
+        private final byte[] sourceSuffix;
+        private final boolean withSource;
+        private final long contentLength;
+
+        /**
+         * 不带文档行的命令，如delete
+         * @param action
+         */
+        public Item(String action) {
+            this(action, null, 0, 0);
+        }
+
+        /**
+         * 不带文档行的命令，同时保留命令对应的ROW，以便处理失败时写回FlowFile
+         * @param action
+         * @param row UTF-8编码的ROW内容，可为null
+         * @param rowOffset
+         * @param rowLength
+         */
+        public Item(String action, byte[] row, int rowOffset, int rowLength) {
+            this(action, null, row, rowOffset, rowLength, null, false);
+        }
+
+        /**
+         * @param action 命令行，不含换行符
+         * @param sourcePrefix 文档前缀，如update命令的{"doc": ，可为null
+         * @param source UTF-8编码的文档内容，其中的回车换行只能是JSON空白，写出时会被去掉
+         * @param sourceOffset
+         * @param sourceLength
+         * @param sourceSuffix 文档后缀，可为null
+         */
+        public Item(String action, String sourcePrefix, byte[] source, int sourceOffset, int sourceLength, String sourceSuffix) {
+            this(action, sourcePrefix, source, sourceOffset, sourceLength, sourceSuffix, true);
+        }
+
+        private Item(String action, String sourcePrefix, byte[] source, int sourceOffset, int sourceLength, String sourceSuffix, boolean withSource) {
+            this.withSource = withSource && source != null;
+            this.action = action.getBytes(StandardCharsets.UTF_8);
+            this.sourcePrefix = sourcePrefix == null ? null : sourcePrefix.getBytes(StandardCharsets.UTF_8);
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.sourceSuffix = sourceSuffix == null ? null : sourceSuffix.getBytes(StandardCharsets.UTF_8);
+
+            long length = this.action.length + 1;
+            if (this.withSource) {
+                length += sourceLength + 1;
+                for (int i = sourceOffset; i < sourceOffset + sourceLength; i++) {
+                    if (source[i] == CR || source[i] == LF) {
+                        length--;
+                    }
+                }
+                if (this.sourcePrefix != null) {
+                    length += this.sourcePrefix.length;
+                }
+                if (this.sourceSuffix != null) {
+                    length += this.sourceSuffix.length;
+                }
+            }
+            this.contentLength = length;
+        }
+
+        public long contentLength() {
+            return contentLength;
+        }
+
+        /**
+         * 按原样写出命令对应的ROW
+         * @param out
+         * @throws IOException
+         */
+        public void writeRowTo(OutputStream out) throws IOException {
+            if (source != null) {
+                out.write(source, sourceOffset, sourceLength);
+            }
+        }
+
+        void writeTo(BufferedSink sink) throws IOException {
+            sink.write(action);
+            sink.writeByte(LF);
+            if (withSource) {
+                if (sourcePrefix != null) {
+                    sink.write(sourcePrefix);
+                }
+                // UTF-8多字节字符中不会出现回车换行字节，按字节去掉即可保证文档只占一行
+                int end = sourceOffset + sourceLength;
+                int start = sourceOffset;
+                for (int i = sourceOffset; i < end; i++) {
+                    if (source[i] == CR || source[i] == LF) {
+                        if (i > start) {
+                            sink.write(source, start, i - start);
+                        }
+                        start = i + 1;
+                    }
+                }
+                if (end > start) {
+                    sink.write(source, start, end - start);
+                }
+                if (sourceSuffix != null) {
+                    sink.write(sourceSuffix);
+                }
+                sink.writeByte(LF);
+            }
+        }
+    }
+}
@@ -4,7 +4,6 @@ package io.activedata.xnifi.processors.elasticsearch;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import io.activedata.xnifi.utils.FlowFileUtils;
 import okhttp3.*;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -19,17 +18,23 @@ import org.apache.nifi.expression.AttributeExpression;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 
 @InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
@@ -107,6 +112,60 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
             .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
             .build();
 
+    public static final PropertyDescriptor MAX_BULK_SIZE = new PropertyDescriptor.Builder()
+            .name("put-es-max-bulk-size")
+            .displayName("单次批量请求最大字节数")
+            .description("一次_bulk请求的最大字节数，超过时拆分为多个请求发送，以避免ES返回413或触发熔断；超过该大小的单条命令会单独发送。")
+            .required(true)
+            .defaultValue("10 MB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BULK_ACTIONS = new PropertyDescriptor.Builder()
+            .name("put-es-max-bulk-actions")
+            .displayName("单次批量请求最大命令数")
+            .description("一次_bulk请求中包含的最大命令数，即JSON ROW数，超过时拆分为多个请求发送。")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_CONCURRENT_REQUESTS = new PropertyDescriptor.Builder()
+            .name("put-es-max-concurrent-requests")
+            .displayName("最大并发请求数")
+            .description("每个任务同时在途的_bulk请求的最大数量，默认为1即逐个同步发送；大于1时拆分出的多个批量请求通过共享的连接池并发发送，"
+                    + "所有请求完成后再统一路由FlowFile。")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_RETRIES = new PropertyDescriptor.Builder()
+            .name("put-es-max-retries")
+            .displayName("最大重试次数")
+            .description("ES因队列已满或暂时不可用拒绝命令（429/503）时在处理器内重新发送这些ROW的最大次数，默认为3次；"
+                    + "重试后仍被拒绝的ROW写入新的FlowFile转入retry队列。")
+            .required(true)
+            .defaultValue("3")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RETRY_BACKOFF = new PropertyDescriptor.Builder()
+            .name("put-es-retry-backoff")
+            .displayName("初始重试间隔")
+            .description("第一次重试前的等待时间，之后每次重试等待时间加倍，最长不超过10秒，默认为100毫秒。")
+            .required(true)
+            .defaultValue("100 millis")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /**
+     * 内部使用的处理结果，不是处理器的关系：命令被ES拒绝（429/503），在本次触发内退避后重新发送，重试次数用完后转入retry队列
+     */
+    protected static final Relationship REJECTED = new Relationship.Builder().name("rejected").build();
+
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 10000L;
+
     private static final Set<Relationship> relationships;
     private static final List<PropertyDescriptor> propertyDescriptors;
 
@@ -126,6 +185,11 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
         props.add(CHARSET);
         props.add(BATCH_SIZE);
         props.add(INDEX_OP);
+        props.add(MAX_BULK_SIZE);
+        props.add(MAX_BULK_ACTIONS);
+        props.add(MAX_CONCURRENT_REQUESTS);
+        props.add(MAX_RETRIES);
+        props.add(RETRY_BACKOFF);
 
         propertyDescriptors = Collections.unmodifiableList(props);
     }
@@ -169,9 +233,18 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
-        createElasticsearchClient(context);
+    protected int getMaxConcurrentRequests(ProcessContext context) {
+        return context.getProperty(MAX_CONCURRENT_REQUESTS).asInteger();
+    }
+
+    private volatile int maxRetries;
+    private volatile long retryBackoffMillis;
+
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+        maxRetries = context.getProperty(MAX_RETRIES).asInteger();
+        retryBackoffMillis = context.getProperty(RETRY_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS);
     }
 
     protected void process(ProcessContext context, ProcessSession session) throws ProcessException {
@@ -196,9 +269,6 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
         OkHttpClient okHttpClient = getClient();
         final ComponentLog logger = getLogger();
 
-        // Keep track of the list of flow files that need to be transferred. As they are transferred, remove them from the list.
-        List<FlowFile> flowFilesToTransfer = new LinkedList<>(flowFiles);
-
         HttpUrl.Builder urlBuilder = HttpUrl.parse(baseUrl).newBuilder().addPathSegment("_bulk");
 
         // Find the user-added properties and set them as query parameters on the URL
@@ -211,14 +281,15 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
             }
         }
         final URL url = urlBuilder.build().url();
-        final StringBuilder sb = new StringBuilder();
+        final long maxBulkSize = context.getProperty(MAX_BULK_SIZE).asDataSize(DataUnit.B).longValue();
+        final int maxBulkActions = context.getProperty(MAX_BULK_ACTIONS).asInteger();
+        final Map<FlowFile, PendingFlowFile> pendings = new LinkedHashMap<>();
 
         for (FlowFile file : flowFiles) {
             final String index = context.getProperty(INDEX).evaluateAttributeExpressions(file).getValue();
             final Charset charset = Charset.forName(context.getProperty(CHARSET).evaluateAttributeExpressions(file).getValue());
             if (StringUtils.isEmpty(index)) {
                 logger.error("文档索引名称不能为 {}, 该FlowFile将会被放入失败队列。", new Object[]{idAttr, file});
-                flowFilesToTransfer.remove(file);
                 session.transfer(file, REL_FAILURE);
                 continue;
             }
@@ -233,7 +304,6 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
                     break;
                 default:
                     logger.error("索引处理类型有错 {}, 该FlowFile将会被放入失败队列。", new Object[]{file});
-                    flowFilesToTransfer.remove(file);
                     session.transfer(file, REL_FAILURE);
                     continue;
             }
@@ -243,113 +313,328 @@ public class PutElasticsearchOnJson extends AbstractElasticsearchProcessor {
             if (idAttr == null && !indexOp.equalsIgnoreCase("index")) {
                 logger.error("索引处理类型{}未设置ID属性, 该FlowFile将会被放入失败队列。",
                         new Object[]{indexOp, file});
-                flowFilesToTransfer.remove(file);
                 session.transfer(file, REL_FAILURE);
                 continue;
             }
 
+            final List<BulkRequestBody.Item> items;
             try {
-                List<Map> rows = FlowFileUtils.readJsonToList(session, file);
-                buildCmdBatch(sb, index, docType, indexOp, idAttr, rows);
+                byte[] content = readContent(session, file, charset);
+                items = buildBulkItems(content, index, docType, indexOp, idAttr);
             } catch (Throwable e) {
                 logger.error("FlowFile中包含无效的JSON格式, 该FlowFile将会被放入失败队列并进行惩罚。",
                         new Object[]{indexOp, file});
-                flowFilesToTransfer.remove(file);
                 file = session.penalize(file);
                 session.transfer(file, REL_FAILURE);
                 continue;
             }
+            pendings.put(file, new PendingFlowFile(file, charset, items));
+        }
 
+        // 被ES拒绝（429/503）的ROW在本次触发内退避后重新发送，只重发这些ROW；其他5xx错误不重发，直接转入retry队列
+        List<BulkRequestBody> requestBodies = splitBulk(pendings.values(), null, maxBulkSize, maxBulkActions);
+        for (int attempt = 0; !requestBodies.isEmpty(); attempt++) {
+            executeBulks(context, okHttpClient, url, username, password, requestBodies, pendings);
+            if (attempt >= maxRetries) {
+                break;
+            }
+            requestBodies = splitBulk(pendings.values(), REJECTED, maxBulkSize, maxBulkActions);
+            if (!requestBodies.isEmpty()) {
+                long backoff = Math.min(retryBackoffMillis << Math.min(attempt, 16), MAX_RETRY_BACKOFF_MILLIS);
+                logger.warn("ES拒绝了部分命令，{}毫秒后进行第{}次重试。", new Object[]{backoff, attempt + 1});
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
 
-        if (!flowFilesToTransfer.isEmpty()) {
-            RequestBody requestBody = RequestBody.create(MediaType.parse("application/json"), sb.toString());
-            final Response getResponse;
+        boolean yield = false;
+        for (PendingFlowFile pending : pendings.values()) {
+            yield |= transferRows(session, pending, url);
+        }
+        if (yield) {
+            // a server error might last a while, so yield
+            context.yield();
+        }
+    }
+
+    /**
+     * 按命令数和字节数拆分批量请求，一个FlowFile的ROW可能分布在多个请求中；超过字节上限的单条命令单独发送
+     *
+     * @param pendings
+     * @param outcome 只包含当前结果为outcome的ROW，null表示尚未发送的ROW
+     * @param maxBulkSize
+     * @param maxBulkActions
+     * @return
+     */
+    private List<BulkRequestBody> splitBulk(Collection<PendingFlowFile> pendings, Relationship outcome, long maxBulkSize, int maxBulkActions) {
+        final List<BulkRequestBody> requestBodies = new ArrayList<>();
+        BulkRequestBody requestBody = new BulkRequestBody();
+        for (PendingFlowFile pending : pendings) {
+            for (int row = 0; row < pending.items.size(); row++) {
+                if (pending.outcomes[row] != outcome) {
+                    continue;
+                }
+                BulkRequestBody.Item item = pending.items.get(row);
+                if (requestBody.size() > 0 && (requestBody.size() >= maxBulkActions
+                        || requestBody.contentLength() + item.contentLength() > maxBulkSize)) {
+                    requestBodies.add(requestBody);
+                    requestBody = new BulkRequestBody();
+                }
+                requestBody.add(item, pending.flowFile, row);
+            }
+        }
+        if (requestBody.size() > 0) {
+            requestBodies.add(requestBody);
+        }
+        return requestBodies;
+    }
+
+    /**
+     * 发送所有批量请求，并把每条命令的结果记录到对应FlowFile的ROW上
+     */
+    private void executeBulks(ProcessContext context, OkHttpClient okHttpClient, URL url, String username, String password,
+                              List<BulkRequestBody> requestBodies, Map<FlowFile, PendingFlowFile> pendings) {
+        final int maxConcurrentRequests = context.getProperty(MAX_CONCURRENT_REQUESTS).asInteger();
+        final List<CompletableFuture<Relationship[]>> futures = new ArrayList<>(requestBodies.size());
+        if (maxConcurrentRequests <= 1) {
+            for (BulkRequestBody body : requestBodies) {
+                futures.add(CompletableFuture.completedFuture(executeBulk(okHttpClient, url, username, password, body)));
+            }
+        } else {
+            // 最多maxConcurrentRequests个请求同时在途，有请求完成后再发送下一个
+            Semaphore permits = new Semaphore(maxConcurrentRequests);
             try {
-                getResponse = sendRequestToElasticsearch(okHttpClient, url, username, password, "PUT", requestBody);
-            } catch (final Exception e) {
-                if (logger.isDebugEnabled()){
-                    logger.error("路由FlowFile时出现错误：" + ExceptionUtils.getStackTrace(e));
-                }else{
-                    logger.error("路由FlowFile时出现错误：" + ExceptionUtils.getMessage(e));
+                for (BulkRequestBody body : requestBodies) {
+                    permits.acquire();
+                    CompletableFuture<Relationship[]> future = executeBulkAsync(okHttpClient, url, username, password, body);
+                    future.whenComplete((result, e) -> permits.release());
+                    futures.add(future);
                 }
-                flowFilesToTransfer.forEach((flowFileToTransfer) -> {
-                    flowFileToTransfer = session.penalize(flowFileToTransfer);
-                    session.transfer(flowFileToTransfer, REL_FAILURE);
-                });
-                flowFilesToTransfer.clear();
-                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("等待ES批量请求完成时被中断。", e);
             }
+        }
 
-            final int statusCode = getResponse.code();
+        for (int b = 0; b < requestBodies.size(); b++) {
+            BulkRequestBody body = requestBodies.get(b);
+            Relationship[] itemOutcomes = futures.get(b).join();
+            for (int i = 0; i < itemOutcomes.length; i++) {
+                pendings.get(body.getFlowFile(i)).outcomes[body.getRow(i)] = itemOutcomes[i];
+            }
+        }
+    }
+
+    /**
+     * 按ROW的结果路由FlowFile：所有ROW结果相同时整体转移；否则失败和待重试的ROW分别写入新的FlowFile，原FlowFile只保留成功的ROW
+     *
+     * @param session
+     * @param pending
+     * @param url
+     * @return 是否有需要重试的ROW
+     */
+    private boolean transferRows(ProcessSession session, PendingFlowFile pending, URL url) {
+        final Map<Relationship, List<Integer>> rowsByOutcome = new LinkedHashMap<>();
+        for (int row = 0; row < pending.outcomes.length; row++) {
+            Relationship outcome = pending.outcomes[row] == REJECTED ? REL_RETRY : pending.outcomes[row];
+            rowsByOutcome.computeIfAbsent(outcome, k -> new ArrayList<>()).add(row);
+        }
+
+        FlowFile flowFile = pending.flowFile;
+        if (rowsByOutcome.size() <= 1) {
+            Relationship rel = rowsByOutcome.isEmpty() ? REL_SUCCESS : rowsByOutcome.keySet().iterator().next();
+            transfer(session, flowFile, rel, url);
+            return rel == REL_RETRY;
+        }
+
+        for (Map.Entry<Relationship, List<Integer>> entry : rowsByOutcome.entrySet()) {
+            if (entry.getKey() != REL_SUCCESS) {
+                FlowFile child = writeRows(session, session.create(flowFile), pending, entry.getValue());
+                transfer(session, child, entry.getKey(), url);
+            }
+        }
+        List<Integer> successRows = rowsByOutcome.get(REL_SUCCESS);
+        if (successRows != null) {
+            flowFile = writeRows(session, flowFile, pending, successRows);
+            transfer(session, flowFile, REL_SUCCESS, url);
+        } else {
+            session.remove(flowFile);
+        }
+        return rowsByOutcome.containsKey(REL_RETRY);
+    }
+
+    private void transfer(ProcessSession session, FlowFile flowFile, Relationship rel, URL url) {
+        if (rel == REL_SUCCESS) {
+            session.transfer(flowFile, REL_SUCCESS);
+            // Record provenance event
+            session.getProvenanceReporter().send(flowFile, url.toString());
+        } else if (rel == REL_RETRY) {
+            session.transfer(flowFile, REL_RETRY);
+        } else {
+            flowFile = session.penalize(flowFile);
+            session.transfer(flowFile, REL_FAILURE);
+        }
+    }
+
+    /**
+     * 把指定的ROW按原样写成JSON数组，并转换为FlowFile原有的字符集
+     */
+    private FlowFile writeRows(ProcessSession session, FlowFile flowFile, PendingFlowFile pending, List<Integer> rows) {
+        return session.write(flowFile, out -> {
+            OutputStream target = StandardCharsets.UTF_8.equals(pending.charset) ? out : new ByteArrayOutputStream();
+            target.write('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    target.write(',');
+                }
+                pending.items.get(rows.get(i)).writeRowTo(target);
+            }
+            target.write(']');
+            if (target != out) {
+                out.write(new String(((ByteArrayOutputStream) target).toByteArray(), StandardCharsets.UTF_8).getBytes(pending.charset));
+            }
+        });
+    }
+
+    /**
+     * 发送一个批量请求并返回其中每条命令的处理结果，不操作session
+     *
+     * @param client
+     * @param url
+     * @param username
+     * @param password
+     * @param body
+     * @return 与body中的命令一一对应的关系，被ES拒绝可以重新发送的命令为{@link #REJECTED}
+     */
+    protected Relationship[] executeBulk(OkHttpClient client, URL url, String username, String password, BulkRequestBody body) {
+        final Response getResponse;
+        try {
+            getResponse = sendRequestToElasticsearch(client, url, username, password, "PUT", body);
+        } catch (final Exception e) {
+            return handleBulkError(body, e);
+        }
+        return handleBulkResponse(body, getResponse);
+    }
+
+    /**
+     * 以异步方式发送一个批量请求，完成时得到其中每条命令的处理结果，不会异常完成
+     *
+     * @param client
+     * @param url
+     * @param username
+     * @param password
+     * @param body
+     * @return
+     */
+    protected CompletableFuture<Relationship[]> executeBulkAsync(OkHttpClient client, URL url, String username, String password, BulkRequestBody body) {
+        try {
+            return sendRequestToElasticsearchAsync(client, url, username, password, "PUT", body)
+                    .handle((response, e) -> e != null ? handleBulkError(body, e) : handleBulkResponse(body, response));
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(handleBulkError(body, e));
+        }
+    }
+
+    private Relationship[] handleBulkError(BulkRequestBody body, Throwable e) {
+        final ComponentLog logger = getLogger();
+        if (logger.isDebugEnabled()){
+            logger.error("路由FlowFile时出现错误：" + ExceptionUtils.getStackTrace(e));
+        }else{
+            logger.error("路由FlowFile时出现错误：" + ExceptionUtils.getMessage(e));
+        }
+        final Relationship[] outcomes = new Relationship[body.size()];
+        Arrays.fill(outcomes, REL_FAILURE);
+        return outcomes;
+    }
 
+    private Relationship[] handleBulkResponse(BulkRequestBody body, Response getResponse) {
+        final ComponentLog logger = getLogger();
+        final Relationship[] outcomes = new Relationship[body.size()];
+        try {
+            final int statusCode = getResponse.code();
             if (isSuccess(statusCode)) {
-                ResponseBody responseBody = getResponse.body();
+                Arrays.fill(outcomes, REL_SUCCESS);
                 try {
-                    final byte[] bodyBytes = responseBody.bytes();
-
-                    JsonNode responseJson = parseJsonResponse(new ByteArrayInputStream(bodyBytes));
+                    JsonNode responseJson = parseJsonResponse(getResponse.body().byteStream());
                     boolean errors = responseJson.get("errors").asBoolean(false);
                     if (errors) {
+                        // All items are returned whether they succeeded or failed, in the same order as the actions,
+                        // but only keep the first error for logging
                         ArrayNode itemNodeArray = (ArrayNode) responseJson.get("items");
-                        if (itemNodeArray.size() > 0) {
-                            // All items are returned whether they succeeded or failed, so iterate through the item array
-                            // at the same time as the flow file list, moving each to success or failure accordingly,
-                            // but only keep the first error for logging
-                            String errorReason = null;
-                            for (int i = itemNodeArray.size() - 1; i >= 0; i--) {
-                                JsonNode itemNode = itemNodeArray.get(i);
-                                if (flowFilesToTransfer.size() > i) {
-                                    FlowFile flowFile = flowFilesToTransfer.remove(i);
-                                    int status = itemNode.findPath("status").asInt();
-                                    if (!isSuccess(status)) {
-                                        if (errorReason == null) {
-                                            // Use "result" if it is present; this happens for status codes like 404 Not Found, which may not have an error/reason
-                                            String reason = itemNode.findPath("result").asText();
-                                            if (StringUtils.isEmpty(reason)) {
-                                                // If there was no result, we expect an error with a string description in the "reason" field
-                                                reason = itemNode.findPath("reason").asText();
-                                            }
-                                            errorReason = reason;
-                                            logger.error("Failed to process {} due to {}, transferring to failure",
-                                                    new Object[]{flowFile, errorReason});
-                                        }
-                                        flowFile = session.penalize(flowFile);
-                                        session.transfer(flowFile, REL_FAILURE);
-
-                                    } else {
-                                        session.transfer(flowFile, REL_SUCCESS);
-                                        // Record provenance event
-                                        session.getProvenanceReporter().send(flowFile, url.toString());
+                        String errorReason = null;
+                        for (int i = 0; i < itemNodeArray.size() && i < outcomes.length; i++) {
+                            JsonNode itemNode = itemNodeArray.get(i);
+                            int status = itemNode.findPath("status").asInt();
+                            if (isRejected(status)) {
+                                outcomes[i] = REJECTED;
+                            } else if (!isSuccess(status)) {
+                                outcomes[i] = REL_FAILURE;
+                                if (errorReason == null) {
+                                    // Use "result" if it is present; this happens for status codes like 404 Not Found, which may not have an error/reason
+                                    String reason = itemNode.findPath("result").asText();
+                                    if (StringUtils.isEmpty(reason)) {
+                                        // If there was no result, we expect an error with a string description in the "reason" field
+                                        reason = itemNode.findPath("reason").asText();
                                     }
+                                    errorReason = reason;
+                                    logger.error("Failed to process row {} of {} due to {}, transferring to failure",
+                                            new Object[]{body.getRow(i), body.getFlowFile(i), errorReason});
                                 }
                             }
                         }
                     }
-                    // Transfer any remaining flowfiles to success
-                    flowFilesToTransfer.forEach(file -> {
-                        session.transfer(file, REL_SUCCESS);
-                        // Record provenance event
-                        session.getProvenanceReporter().send(file, url.toString());
-                    });
                 } catch (IOException ioe) {
                     // Something went wrong when parsing the response, log the error and route to failure
                     logger.error("Error parsing Bulk API response: {}", new Object[]{ioe.getMessage()}, ioe);
-                    session.transfer(flowFilesToTransfer, REL_FAILURE);
-                    context.yield();
+                    Arrays.fill(outcomes, REL_FAILURE);
                 }
+            } else if (isRejected(statusCode)) {
+                // 429, 503 -> 本次触发内重新发送
+                logger.warn("Elasticsearch returned code {} with message {}, the bulk request will be resent",
+                        new Object[]{statusCode, getResponse.message()});
+                Arrays.fill(outcomes, REJECTED);
             } else if (statusCode / 100 == 5) {
-                // 5xx -> RETRY, but a server error might last a while, so yield
+                // 5xx -> RETRY
                 logger.warn("Elasticsearch returned code {} with message {}, transferring flow file to retry. This is likely a server problem, yielding...",
                         new Object[]{statusCode, getResponse.message()});
-                session.transfer(flowFilesToTransfer, REL_RETRY);
-                context.yield();
+                Arrays.fill(outcomes, REL_RETRY);
             } else {  // 1xx, 3xx, 4xx, etc. -> NO RETRY
                 logger.warn("Elasticsearch returned code {} with message {}, transferring flow file to failure", new Object[]{statusCode, getResponse.message()});
-                session.transfer(flowFilesToTransfer, REL_FAILURE);
+                Arrays.fill(outcomes, REL_FAILURE);
             }
+        } finally {
             getResponse.close();
         }
+        return outcomes;
     }
-}
 
+    /**
+     * ES因写入队列已满或暂时不可用而拒绝命令，稍后重试即可
+     * @param statusCode
+     * @return
+     */
+    private boolean isRejected(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * 一批中的一个FlowFile及其每条ROW的命令和处理结果
+     */
+    private static class PendingFlowFile {
+        final FlowFile flowFile;
+        final Charset charset;
+        final List<BulkRequestBody.Item> items;
+        final Relationship[] outcomes;
+
+        PendingFlowFile(FlowFile flowFile, Charset charset, List<BulkRequestBody.Item> items) {
+            this.flowFile = flowFile;
+            this.charset = charset;
+            this.items = items;
+            this.outcomes = new Relationship[items.size()];
+        }
+    }
+}
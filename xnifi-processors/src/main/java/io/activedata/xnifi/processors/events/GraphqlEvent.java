@@ -66,8 +66,8 @@ public class GraphqlEvent extends AbstractJsonPipelineProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
         writerSchemaStrategy = WSS_ONLY_OUTPUT; // 对Output策略进行重定义，只输出Output的内容，Input中的数据
         attrPayload = context.getProperty(PROP_PAYLOAD).getValue();
         attrVariables = context.getProperty(PROP_VARIABLES).getValue();
@@ -4,6 +4,7 @@ import com.alibaba.fastjson.JSON;
 import graphql.language.*;
 import graphql.parser.Parser;
 import io.activedata.xnifi.dbutils.utils.NamingUtils;
+import io.activedata.xnifi.utils.LruCache;
 import jodd.bean.BeanUtil;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -16,7 +17,16 @@ import java.util.*;
  */
 public class GraphqlParserUtils {
     private static final Map<String, Object> EMPTY_MAP = new HashMap<>();
+    /**
+     * Parser没有成员状态，每次parseDocument都会新建词法和语法分析器，可以在并发任务之间共享
+     */
     private static final Parser parser = new Parser();
+    private static final int DOCUMENT_CACHE_SIZE = 1000;
+    /**
+     * 以原始请求体为键缓存解析出的首个操作定义，同一个请求体只做一次反转义和解析，之后每个事件只需绑定变量；
+     * 解析后的语法树只读不写，可以在线程间共享
+     */
+    private static final LruCache<String, OperationDefinition> documentCache = new LruCache<>(DOCUMENT_CACHE_SIZE);
     private static final String DEF_KEY_TYPE = "type"; //对应Graphql的操作名称，可以为空
     private static final String DEF_KEY_NAME = "name"; //请求的名字，可以是中文，如查看赛事、查看文章或者GraphQL的查询名称
     private static final String DEF_KEY_CATEGORY = "category"; //这里为了兼容以前的PROFILE事件，所以增加属性category，以便统一处理，为英文形式
@@ -24,27 +34,34 @@ public class GraphqlParserUtils {
 
     public static Map<String, Object> parseRequest(String payload, String variablesText) {
         if (StringUtils.isNotBlank(payload)) {
-            payload = StringEscapeUtils.unescapeJava(payload);
+            OperationDefinition opDef = parseOperation(payload);
             Map<String, Object> variables = EMPTY_MAP;
-            try {
-                Document doc = parser.parseDocument(payload);
-                if (StringUtils.isNotBlank(variablesText))
-                    variables = JSON.parseObject(variablesText);
-                List<Definition> defs = doc.getDefinitions();
-                if (defs != null && defs.size() >= 1) {
-                    Definition def = defs.get(0); //只取第一个定义
-                    if (def instanceof OperationDefinition) {
-                        Map<String, Object> defMap = singleDefinition((OperationDefinition) def, variables);
-                        return defMap;
-                    }
-                }
+            if (StringUtils.isNotBlank(variablesText))
+                variables = JSON.parseObject(variablesText);
+            return singleDefinition(opDef, variables);
+        }
+        return EMPTY_MAP;
+    }
 
-                throw new RuntimeException("不支持解析此类GraphQL请求：[" + payload + "]。");
-            } catch (Exception e) {
-                throw e;
+    /**
+     * 取得请求体中的首个操作定义，优先从缓存中获取；解析失败或不支持的请求不缓存
+     * @param payload
+     * @return
+     */
+    static OperationDefinition parseOperation(String payload) {
+        OperationDefinition opDef = documentCache.get(payload);
+        if (opDef == null) {
+            String unescaped = StringEscapeUtils.unescapeJava(payload);
+            Document doc = parser.parseDocument(unescaped); // 解析在锁外进行，并发时同一请求体可能被重复解析，结果相同
+            List<Definition> defs = doc.getDefinitions();
+            if (defs != null && defs.size() >= 1 && defs.get(0) instanceof OperationDefinition) { //只取第一个定义
+                opDef = (OperationDefinition) defs.get(0);
+                documentCache.put(payload, opDef);
+            } else {
+                throw new RuntimeException("不支持解析此类GraphQL请求：[" + unescaped + "]。");
             }
         }
-        return EMPTY_MAP;
+        return opDef;
     }
 
     static Map<String, Object> singleDefinition(OperationDefinition opDef, Map<String, Object> variables) {
@@ -3,6 +3,8 @@ package io.activedata.xnifi.processors.generate;
 
 import com.alibaba.fastjson.JSON;
 import io.activedata.xnifi.core.AbstractXNifiProcessor;
+import io.activedata.xnifi.dbutils.ThreadBoundTransaction;
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
 import io.activedata.xnifi.expression.Strings;
 import io.activedata.xnifi.processors.generate.dao.SequenceDAO;
 import io.activedata.xnifi.processors.generate.dao.jdbc.SequenceDAOImpl;
@@ -15,7 +17,6 @@ import io.activedata.xnifi.utils.SchemaUtils;
 import io.activedata.xnifi.utils.ScriptContextUtils;
 import jodd.bean.BeanCopy;
 import org.apache.avro.file.CodecFactory;
-import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
@@ -41,11 +42,13 @@ import org.apache.nifi.serialization.RecordSetWriter;
 import org.apache.nifi.serialization.WriteResult;
 import org.apache.nifi.serialization.record.Record;
 import org.apache.nifi.serialization.record.RecordSchema;
+import org.mvel2.templates.CompiledTemplate;
+import org.mvel2.templates.TemplateCompiler;
 import org.mvel2.templates.TemplateRuntime;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -60,9 +63,9 @@ public class GenerateSequence extends AbstractXNifiProcessor {
 
     private static SequenceGenerator generator = new SequenceGenerator();
 
-    private volatile SequenceDAO dao;
-
-    private volatile Connection conn;
+    private final ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+    private volatile DBCPService dbcpService;
+    private volatile CompiledTemplate seqMaxValueTemplate;
 
     private static Map<String,Object> schemaMap = new HashMap<>();
 
@@ -167,13 +170,17 @@ public class GenerateSequence extends AbstractXNifiProcessor {
 
     @Override
     protected void process(ProcessContext context, ProcessSession session) throws ProcessException {
+        SequenceDAO dao = new SequenceDAOImpl(transaction.get().getConnection(), false); //序列的保存与会话一起提交
+        generateSequences(context, session, dao);
+    }
+
+    private void generateSequences(ProcessContext context, ProcessSession session, SequenceDAO dao) {
         String seqStrategy = context.getProperty(PROP_SEQ_STRATEGY).getValue();
         String seqCode = context.getProperty(PROP_SEQ_CODE).getValue();
         String seqInitValue = context.getProperty(PROP_SEQ_INIT_VALUE).getValue();
         String seqStep = context.getProperty(PROP_SEQ_STEP).getValue();
         String seqFormat = context.getProperty(PROP_SEQ_FORMAT).getValue();
-        String seqMaxValueExpr = context.getProperty(PROP_SEQ_MAX_VALUE).getValue(); // 这里的表达式可以为null，默认值会在evelMaxValue中产生
-        String seqMaxValue = evalMaxValue(seqMaxValueExpr, seqFormat);
+        String seqMaxValue = evalMaxValue(seqMaxValueTemplate, seqFormat); // 这里的表达式可以为null，默认值会在evelMaxValue中产生
         int batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
 
         Sequence seqParam = dao.getSequence(seqCode);
@@ -236,17 +243,35 @@ public class GenerateSequence extends AbstractXNifiProcessor {
         });
     }
 
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
+        String seqMaxValueExpr = context.getProperty(PROP_SEQ_MAX_VALUE).getValue();
+        seqMaxValueTemplate = StringUtils.isBlank(seqMaxValueExpr) ? null : TemplateCompiler.compileTemplate(seqMaxValueExpr);
+    }
+
     @Override
     protected void beforeProcess(ProcessContext context) throws ProcessException {
-        DBCPService dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
-        conn = dbcpService.getConnection();
-        dao = new SequenceDAOImpl(conn);
+        transaction.begin(dbcpService);
+    }
+
+    @Override
+    protected void beforeCommit(ProcessContext context) throws ProcessException {
+        try {
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new InvalidEnvironmentException("提交数据库事务失败：", e);
+        }
+    }
+
+    @Override
+    protected void onRollback() {
+        transaction.rollback();
     }
 
     @Override
     protected void afterProcess() {
-        DbUtils.closeQuietly(conn);
-        dao = null;
+        transaction.end();
     }
 
     @OnEnabled
@@ -284,14 +309,14 @@ public class GenerateSequence extends AbstractXNifiProcessor {
         return dynamicProperties;
     }
 
-    private static String evalMaxValue(String expr, String format){
+    private static String evalMaxValue(CompiledTemplate template, String format){
         if (StringUtils.isBlank(format))
             format = "yyyy-MM-dd";
 
-        if (StringUtils.isBlank(expr))
-            expr = DateFormatUtils.format(new Date(), format); // 取得最大时间默认值
+        if (template == null)
+            return DateFormatUtils.format(new Date(), format); // 取得最大时间默认值
 
-        Object result = TemplateRuntime.eval(expr, ScriptContextUtils.createContext()); // 这里没使用MVEL.eval是为了不把普通字符串识别成表达式
+        Object result = TemplateRuntime.execute(template, ScriptContextUtils.createContext()); // 这里没使用MVEL是为了不把普通字符串识别成表达式
         if (result instanceof Date){
             return DateFormatUtils.format((Date) result, format);
         }else if (result instanceof String){
@@ -38,8 +38,17 @@ public class SequenceDAOImpl implements SequenceDAO {
     private static final String SQL_DELETE = "delete from XNIFI_GENERATED_SEQUENCE where seq_code = ?";
     private QueryRunner runner = new QueryRunner(true);
     private Connection connection;
+    private boolean commitOnEachCall;
 
     public SequenceDAOImpl(Connection connection) {
+        this(connection, true);
+    }
+
+    /**
+     * @param connection
+     * @param commitOnEachCall 为false时每次操作后不提交，由调用方统一提交事务
+     */
+    public SequenceDAOImpl(Connection connection, boolean commitOnEachCall) {
         Validate.notNull(connection);
         try {
             connection.setAutoCommit(false);
@@ -47,6 +56,7 @@ public class SequenceDAOImpl implements SequenceDAO {
             e.printStackTrace();
         }
         this.connection = connection;
+        this.commitOnEachCall = commitOnEachCall;
     }
 
     public void createTable(){
@@ -70,7 +80,9 @@ public class SequenceDAOImpl implements SequenceDAO {
         } catch (Exception e) {
             throw new RuntimeException(ExceptionUtils.getStackTrace(e));
         }finally {
-            commitQuietly(connection);
+            if (commitOnEachCall) {
+                commitQuietly(connection);
+            }
         }
     }
 
@@ -83,7 +95,9 @@ public class SequenceDAOImpl implements SequenceDAO {
         } catch (SQLException e) {
             throw new RuntimeException(ExceptionUtils.getStackTrace(e));
         }finally {
-            commitQuietly(connection);
+            if (commitOnEachCall) {
+                commitQuietly(connection);
+            }
         }
     }
 
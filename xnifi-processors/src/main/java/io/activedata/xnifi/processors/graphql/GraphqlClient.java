@@ -1,14 +1,23 @@
 package io.activedata.xnifi.processors.graphql;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONReader;
 import okhttp3.*;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
-public class GraphqlClient {
+/**
+ * GraphQL客户端
+ * <p>
+ * 内部的OkHttpClient持有连接池和调度线程，应在处理器调度期间只创建一个实例并在所有记录和触发之间共享，停止时调用{@link #close()}
+ */
+public class GraphqlClient implements AutoCloseable {
     public static final MediaType JSON_UTF8
             = MediaType.parse("application/json; charset=utf-8");
 
@@ -16,7 +25,15 @@ public class GraphqlClient {
     public static final String KEY_VARIABLES = "variables";
     public static final String KEY_OPERATION_NAME = "operationName";
 
-    OkHttpClient client = new OkHttpClient();
+    private final OkHttpClient client;
+
+    public GraphqlClient() {
+        this(new OkHttpClient());
+    }
+
+    public GraphqlClient(OkHttpClient client) {
+        this.client = client;
+    }
 
     /**
      * 向指定graphql服务提交请求
@@ -44,11 +61,108 @@ public class GraphqlClient {
      * @throws IOException
      */
     public Map<String, Object> request(String url, String payload, Map<String, Object> variables, String opName, Map<String, String> headerMap) throws IOException {
+        return post(url, buildRequest(payload, variables, opName), headerMap);
+    }
+
+    /**
+     * 以异步方式向指定graphql服务提交请求，请求由OkHttp的调度线程发送，响应在调度线程中解析
+     * <p>
+     * 同时执行的请求数受OkHttpClient调度器的maxRequestsPerHost限制
+     *
+     * @param url       服务地址
+     * @param payload   graphql请求内容
+     * @param variables graphql变量
+     * @param opName    操作名称，保留，暂时不填。
+     * @param headerMap 请求头
+     * @return 请求完成时得到响应内容，网络错误时以IOException结束
+     */
+    public CompletableFuture<Map<String, Object>> requestAsync(String url, String payload, Map<String, Object> variables, String opName, Map<String, String> headerMap) {
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        String json = JSON.toJSONString(buildRequest(payload, variables, opName));
+        client.newCall(buildHttpRequest(url, json, headerMap)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    future.complete(parseResponse(responseBody));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 以异步方式提交批量请求：多组variables使用同一个payload，合并为一个JSON数组在一次HTTP请求中提交
+     * <p>
+     * 服务端需要支持数组形式的批量请求，返回的数组与请求一一对应；服务端返回单个对象时（如不支持批量请求或整个请求出错），
+     * 无法确定每组variables的结果，整个批量请求以IllegalStateException结束
+     *
+     * @param url           服务地址
+     * @param payload       graphql请求内容
+     * @param variablesList 每个操作的graphql变量
+     * @param opName        操作名称，保留，暂时不填。
+     * @param headerMap     请求头，所有操作共用
+     * @return 请求完成时得到与variablesList一一对应的响应内容，服务端没有返回对应的数组时以IllegalStateException结束
+     */
+    public CompletableFuture<List<Map<String, Object>>> requestBatchAsync(String url, String payload, List<Map<String, Object>> variablesList, String opName, Map<String, String> headerMap) {
+        final CompletableFuture<List<Map<String, Object>>> future = new CompletableFuture<>();
+        final int size = variablesList.size();
+        List<Map<String, Object>> requests = new ArrayList<>(size);
+        for (Map<String, Object> variables : variablesList) {
+            requests.add(buildRequest(payload, variables, opName));
+        }
+        String json = JSON.toJSONString(requests);
+        client.newCall(buildHttpRequest(url, json, headerMap)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    future.complete(splitBatchResponse(readResponse(responseBody), size));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private List<Map<String, Object>> splitBatchResponse(Object result, int size) {
+        if (result instanceof List) {
+            List<?> items = (List<?>) result;
+            if (items.size() != size) {
+                throw new IllegalStateException("GraphQL服务返回的批量结果数量[" + items.size() + "]与请求数量[" + size + "]不一致。");
+            }
+            List<Map<String, Object>> results = new ArrayList<>(size);
+            for (Object item : items) {
+                if (item != null && !(item instanceof Map)) {
+                    throw new IllegalStateException("GraphQL服务返回的批量结果不是JSON对象。");
+                }
+                results.add((Map<String, Object>) item);
+            }
+            return results;
+        } else if (result instanceof Map) {
+            throw new IllegalStateException("GraphQL服务没有返回数组形式的批量结果，可能不支持批量请求：" + StringUtils.abbreviate(JSON.toJSONString(result), 500));
+        } else {
+            throw new IllegalStateException("GraphQL服务返回的内容不是JSON对象或数组。");
+        }
+    }
+
+    private Map<String, Object> buildRequest(String payload, Map<String, Object> variables, String opName) {
         Map<String, Object> request = new HashMap<>();
         request.put(KEY_QUERY, payload);
         request.put(KEY_VARIABLES, variables);
         request.put(KEY_OPERATION_NAME, opName);
-        return post(url, request, headerMap);
+        return request;
     }
 
     /**
@@ -62,8 +176,29 @@ public class GraphqlClient {
      */
     protected Map<String, Object> post(String url, Map<String, Object> request, Map<String, String> headerMap) throws IOException {
         String json = JSON.toJSONString(request);
-        String respJson = postJson(url, json, headerMap);
-        return JSON.parseObject(respJson);
+        try (ResponseBody responseBody = postJson(url, json, headerMap)) {
+            return parseResponse(responseBody);
+        }
+    }
+
+    /**
+     * 从响应体的字符流直接解析JSON，不先把响应读成字符串
+     *
+     * @param responseBody 响应体，由调用方关闭
+     * @return 返回Map对象
+     * @throws IOException
+     */
+    protected Map<String, Object> parseResponse(ResponseBody responseBody) throws IOException {
+        Object result = readResponse(responseBody);
+        if (result != null && !(result instanceof Map)) {
+            throw new IOException("GraphQL服务返回的内容不是JSON对象。");
+        }
+        return (Map<String, Object>) result;
+    }
+
+    private Object readResponse(ResponseBody responseBody) {
+        JSONReader reader = new JSONReader(responseBody.charStream());
+        return reader.readObject();
     }
 
     /**
@@ -72,20 +207,30 @@ public class GraphqlClient {
      * @param url  服务地址
      * @param json JSON文档内容
      * @param headerMap 请求头
-     * @return 接收到的消息内容
+     * @return 接收到的响应体，由调用方关闭
      */
-    protected String postJson(String url, String json, Map<String, String> headerMap) throws IOException {
-        OkHttpClient okHttpClient = new OkHttpClient();
-        RequestBody body = RequestBody.create(JSON_UTF8, json);
+    protected ResponseBody postJson(String url, String json, Map<String, String> headerMap) throws IOException {
+        Call call = client.newCall(buildHttpRequest(url, json, headerMap));
+        Response response = call.execute();
+        return response.body();
+    }
 
-        Request request = new Request.Builder()
+    private Request buildHttpRequest(String url, String json, Map<String, String> headerMap) {
+        RequestBody body = RequestBody.create(JSON_UTF8, json);
+        return new Request.Builder()
                 .url(url)
                 .headers(buildHeaders(headerMap))
                 .post(body)
                 .build();
-        Call call = okHttpClient.newCall(request);
-        Response response = call.execute();
-        return response.body().string();
+    }
+
+    /**
+     * 释放空闲连接并停止调度线程
+     */
+    @Override
+    public void close() {
+        client.connectionPool().evictAll();
+        client.dispatcher().executorService().shutdown();
     }
 
     private Headers buildHeaders(Map<String, String> headerMap) {
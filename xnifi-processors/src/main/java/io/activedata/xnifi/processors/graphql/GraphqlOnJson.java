@@ -1,11 +1,14 @@
 package io.activedata.xnifi.processors.graphql;
 
+import com.alibaba.fastjson.JSON;
 import io.activedata.xnifi.core.Input;
 import io.activedata.xnifi.core.Output;
 import io.activedata.xnifi.core.batch.AbstractJsonRowBatchProcessor;
 import io.activedata.xnifi.exceptions.BizException;
 import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
+import io.activedata.xnifi.exceptions.RetrieableException;
 import io.activedata.xnifi.expression.Strings;
+import io.activedata.xnifi.utils.ExpiringLruCache;
 import io.activedata.xnifi.utils.ScriptContextUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -15,19 +18,35 @@ import org.apache.nifi.annotation.behavior.TriggerSerially;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.Tuple;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.mvel2.MVEL;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @TriggerSerially
 @SupportsBatching
@@ -39,7 +58,7 @@ public class GraphqlOnJson extends AbstractJsonRowBatchProcessor {
     private static final String KEY_VARIABLES = "variables";
     private static final String KEY_HEADERS = "headers";
 
-    private GraphqlClient client = new GraphqlClient();
+    protected volatile GraphqlClient client;
 
     public static PropertyDescriptor PROP_GRAPHQL_URL = new PropertyDescriptor.Builder()
             .name("graphql.url")
@@ -64,36 +83,226 @@ public class GraphqlOnJson extends AbstractJsonRowBatchProcessor {
             .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor PROP_CONNECT_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("graphql.connect.timeout")
+            .displayName("连接超时时间")
+            .description("连接GraphQL服务的超时时间，默认为10秒。")
+            .required(true)
+            .defaultValue("10 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_READ_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("graphql.read.timeout")
+            .displayName("读取超时时间")
+            .description("等待GraphQL服务响应的超时时间，默认为30秒。")
+            .required(true)
+            .defaultValue("30 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_IDLE_CONNECTIONS = new PropertyDescriptor.Builder()
+            .name("graphql.max.idle.connections")
+            .displayName("最大空闲连接数")
+            .description("连接池中保持的最大空闲连接数，默认为5个；连接池在所有记录和触发之间共用。")
+            .required(true)
+            .defaultValue("5")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_KEEP_ALIVE = new PropertyDescriptor.Builder()
+            .name("graphql.keep.alive")
+            .displayName("空闲连接保持时间")
+            .description("空闲连接在连接池中保持的时间，超过后关闭，默认为5分钟。")
+            .required(true)
+            .defaultValue("5 mins")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_CONCURRENT_REQUESTS = new PropertyDescriptor.Builder()
+            .name("graphql.max.concurrent.requests")
+            .displayName("最大并发请求数")
+            .description("同时发送的最大GraphQL请求数，默认为1即逐条同步请求。大于1时同一批记录（见批量处理记录数）的请求以异步方式并发发送，"
+                    + "结果仍按记录原有顺序输出；并发只发生在一批记录之内，所以批量处理记录数不能小于该值。")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_BATCH_REQUESTS = new PropertyDescriptor.Builder()
+            .name("graphql.batch.requests")
+            .displayName("合并批量请求")
+            .description("是否把同一批记录（见批量处理记录数）中请求头相同的记录合并为一个数组形式的GraphQL批量请求，默认为false。"
+                    + "需要服务端支持批量请求，开启时批量处理记录数必须大于1；返回结果按顺序拆分到每条记录，包含errors的记录转入失败队列；服务端没有返回数组时该组记录全部转入失败队列。")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("graphql.cache.size")
+            .displayName("响应缓存大小")
+            .description("缓存的GraphQL响应数量，默认为0即不缓存。只应对幂等的查询开启，缓存以variables和缓存键请求头为键，"
+                    + "包含errors的响应不会被缓存，缓存命中和未命中的次数计入处理器计数器。")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("graphql.cache.ttl")
+            .displayName("响应缓存有效期")
+            .description("缓存的GraphQL响应的有效期，超过后重新请求，默认为60秒；开启缓存时必须大于0。")
+            .required(true)
+            .defaultValue("60 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_CACHE_KEY_HEADERS = new PropertyDescriptor.Builder()
+            .name("graphql.cache.key.headers")
+            .displayName("缓存键请求头")
+            .description("影响响应内容、需要计入缓存键的请求头名称，多个名称用逗号分隔；未列出的请求头不影响缓存命中。")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         List<PropertyDescriptor> props = new ArrayList<PropertyDescriptor>();
         props.add(PROP_GRAPHQL_URL);
         props.add(PROP_GRAPHQL_PAYLOAD);
         props.add(PROP_GRAPHQL_VARIABLES_BUILDER);
+        props.add(PROP_CONNECT_TIMEOUT);
+        props.add(PROP_READ_TIMEOUT);
+        props.add(PROP_MAX_IDLE_CONNECTIONS);
+        props.add(PROP_KEEP_ALIVE);
+        props.add(PROP_MAX_CONCURRENT_REQUESTS);
+        props.add(PROP_BATCH_REQUESTS);
+        props.add(PROP_CACHE_SIZE);
+        props.add(PROP_CACHE_TTL);
+        props.add(PROP_CACHE_KEY_HEADERS);
+        props.add(PROP_RECORD_CHUNK_SIZE);
         props.add(PROP_WRITER_SCHEMA_STRATEGY);
         props.add(PROP_RECORD_INPUT_BUILDER);
         props.add(PROP_RECORD_OUTPUT_BUILDER);
         return props;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        final List<ValidationResult> problems = new ArrayList<>(super.customValidate(validationContext));
+        // 并发请求只在一批记录之内发生，批量处理记录数小于最大并发请求数时多出的并发永远用不上
+        int maxConcurrentRequests = validationContext.getProperty(PROP_MAX_CONCURRENT_REQUESTS).asInteger();
+        int chunkSize = validationContext.getProperty(PROP_RECORD_CHUNK_SIZE).asInteger();
+        if (maxConcurrentRequests > 1 && chunkSize < maxConcurrentRequests) {
+            problems.add(new ValidationResult.Builder()
+                    .valid(false)
+                    .subject(PROP_RECORD_CHUNK_SIZE.getDisplayName())
+                    .explanation("最大并发请求数为" + maxConcurrentRequests + "时，批量处理记录数不能小于该值")
+                    .build());
+        }
+        // 批量请求只合并同一批记录，批量处理记录数为1时每个请求只有一条记录，该选项不起作用
+        boolean batchRequests = validationContext.getProperty(PROP_BATCH_REQUESTS).asBoolean();
+        if (batchRequests && chunkSize <= 1) {
+            problems.add(new ValidationResult.Builder()
+                    .valid(false)
+                    .subject(PROP_RECORD_CHUNK_SIZE.getDisplayName())
+                    .explanation("开启批量请求时，批量处理记录数必须大于1")
+                    .build());
+        }
+        // 开启缓存时有效期必须大于0
+        int cacheSize = validationContext.getProperty(PROP_CACHE_SIZE).asInteger();
+        Long cacheTtl = validationContext.getProperty(PROP_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS);
+        if (cacheSize > 0 && (cacheTtl == null || cacheTtl <= 0)) {
+            problems.add(new ValidationResult.Builder()
+                    .valid(false)
+                    .subject(PROP_CACHE_TTL.getDisplayName())
+                    .explanation("开启响应缓存时有效期必须大于0")
+                    .build());
+        }
+        return problems;
+    }
+
     protected volatile Serializable variablesBuilder;
 
     protected volatile String url;
 
     protected volatile String payload;
 
+    protected volatile int maxConcurrentRequests;
+
+    protected volatile boolean batchRequests;
+
+    /**
+     * 响应缓存，url和payload在调度期间不变，所以只以variables和缓存键请求头作为键；值为响应的JSON文本，每次命中都解析出新的对象
+     */
+    protected volatile ExpiringLruCache<String, String> responseCache;
+
+    protected volatile List<String> cacheKeyHeaders;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
 
         String variablesScript = context.getProperty(PROP_GRAPHQL_VARIABLES_BUILDER).getValue();
 
-        if (StringUtils.isNotBlank(variablesScript)) {
-            variablesBuilder = MVEL.compileExpression(variablesScript);
-        }
+        variablesBuilder = StringUtils.isNotBlank(variablesScript) ? MVEL.compileExpression(variablesScript) : null;
 
         url = context.getProperty(PROP_GRAPHQL_URL).getValue();
         payload = context.getProperty(PROP_GRAPHQL_PAYLOAD).getValue();
+
+        maxConcurrentRequests = context.getProperty(PROP_MAX_CONCURRENT_REQUESTS).asInteger();
+        batchRequests = context.getProperty(PROP_BATCH_REQUESTS).asBoolean();
+        client = new GraphqlClient(createHttpClient(context));
+
+        int cacheSize = context.getProperty(PROP_CACHE_SIZE).asInteger();
+        if (cacheSize > 0) {
+            responseCache = new ExpiringLruCache<>(cacheSize, context.getProperty(PROP_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+            List<String> headerNames = new ArrayList<>();
+            String headersValue = context.getProperty(PROP_CACHE_KEY_HEADERS).getValue();
+            if (StringUtils.isNotBlank(headersValue)) {
+                for (String name : StringUtils.split(headersValue, ',')) {
+                    if (StringUtils.isNotBlank(name)) {
+                        headerNames.add(name.trim());
+                    }
+                }
+            }
+            Collections.sort(headerNames);
+            cacheKeyHeaders = headerNames;
+        } else {
+            responseCache = null;
+            cacheKeyHeaders = Collections.emptyList();
+        }
+    }
+
+    @Override
+    protected void cleanup() {
+        GraphqlClient current = client;
+        client = null;
+        if (current != null) {
+            current.close();
+        }
+        responseCache = null;
+        super.cleanup();
+    }
+
+    protected OkHttpClient createHttpClient(ProcessContext context) {
+        int maxIdleConnections = context.getProperty(PROP_MAX_IDLE_CONNECTIONS).asInteger();
+        long keepAliveMillis = context.getProperty(PROP_KEEP_ALIVE).asTimePeriod(TimeUnit.MILLISECONDS);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxConcurrentRequests));
+        dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), maxConcurrentRequests));
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(context.getProperty(PROP_CONNECT_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+                .readTimeout(context.getProperty(PROP_READ_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                .build();
     }
 
     @Override
@@ -102,11 +311,250 @@ public class GraphqlOnJson extends AbstractJsonRowBatchProcessor {
         Map<String, String> headers = new HashMap<>();
         buildVariables(input, attributes, variables, headers); // 执行VariablesBuilder脚本对variables和headers进行计算
 
+        String cacheKey = getCacheKey(variables, headers);
+        Map<String, Object> results = getCachedResponse(cacheKey);
+        Throwable error = null;
+        if (results == null) {
+            try {
+                results = client.request(url, payload, variables, null, headers);
+                cacheResponse(cacheKey, results);
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+        return toOutput(results, error);
+    }
+
+    @Override
+    protected void adjustCounters(ProcessSession session) {
+        long hits = cacheHits.getAndSet(0);
+        long misses = cacheMisses.getAndSet(0);
+        if (hits > 0) {
+            session.adjustCounter("GraphQL Cache Hits", hits, false);
+        }
+        if (misses > 0) {
+            session.adjustCounter("GraphQL Cache Misses", misses, false);
+        }
+    }
+
+    /**
+     * 取得缓存键，未开启缓存时返回null
+     * @param variables
+     * @param headers
+     * @return
+     */
+    private String getCacheKey(Map<String, Object> variables, Map<String, String> headers) {
+        if (responseCache == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(JSON.toJSONString(new TreeMap<>(variables)));
+        for (String name : cacheKeyHeaders) {
+            key.append('\n').append(name).append('=').append(headers.get(name));
+        }
+        return key.toString();
+    }
+
+    private Map<String, Object> getCachedResponse(String cacheKey) {
+        ExpiringLruCache<String, String> cache = responseCache;
+        if (cacheKey == null || cache == null) {
+            return null;
+        }
+        String json = cache.get(cacheKey);
+        if (json == null) {
+            cacheMisses.incrementAndGet();
+            return null;
+        }
+        cacheHits.incrementAndGet();
+        return JSON.parseObject(json);
+    }
+
+    /**
+     * 缓存成功的响应，包含errors的响应不缓存
+     * @param cacheKey
+     * @param response
+     */
+    private void cacheResponse(String cacheKey, Map<String, Object> response) {
+        ExpiringLruCache<String, String> cache = responseCache;
+        if (cacheKey != null && cache != null && response != null && response.get("errors") == null) {
+            cache.put(cacheKey, JSON.toJSONString(response));
+        }
+    }
+
+    /**
+     * 并发请求：同一批记录的请求以异步方式发送，最多同时有maxConcurrentRequests个请求在执行，结果按inputs的顺序返回
+     * <p>
+     * 脚本计算和结果转换都在当前线程中进行，OkHttp的调度线程只负责发送请求和解析响应
+     */
+    @Override
+    protected List<Tuple<Relationship, Output>> handleProcessRows(Map<String, String> attributes, List<Input> inputs, FlowFile flowFile, ProcessContext context) throws ProcessException {
+        if (batchRequests && inputs.size() > 1) {
+            return handleBatchRequests(attributes, inputs);
+        }
+        if (maxConcurrentRequests <= 1 || inputs.size() <= 1) {
+            return super.handleProcessRows(attributes, inputs, flowFile, context);
+        }
+
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>(inputs.size());
+        List<String> cacheKeys = new ArrayList<>(inputs.size());
+        Semaphore permits = new Semaphore(maxConcurrentRequests);
+        try {
+            for (Input input : inputs) {
+                Map<String, Object> variables = new HashMap<>();
+                Map<String, String> headers = new HashMap<>();
+                buildVariables(input, attributes, variables, headers);
+
+                String cacheKey = getCacheKey(variables, headers);
+                Map<String, Object> cached = getCachedResponse(cacheKey);
+                if (cached != null) {
+                    futures.add(CompletableFuture.completedFuture(cached));
+                    cacheKeys.add(null);
+                    continue;
+                }
+
+                permits.acquire();
+                CompletableFuture<Map<String, Object>> future;
+                try {
+                    future = client.requestAsync(url, payload, variables, null, headers);
+                } catch (RuntimeException e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                future.whenComplete((result, e) -> permits.release());
+                futures.add(future);
+                cacheKeys.add(cacheKey);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("等待GraphQL请求完成时被中断。", e);
+        }
+
+        List<Tuple<Relationship, Output>> results = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<String, Object> response = null;
+            Throwable error = null;
+            try {
+                response = futures.get(i).get();
+                cacheResponse(cacheKeys.get(i), response);
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("等待GraphQL请求完成时被中断。", e);
+            }
+
+            try {
+                results.add(new Tuple<>(REL_SUCCESS, toOutput(response, error)));
+            } catch (BizException e) {
+                results.add(createFailureResult(REL_FAILURE, inputs.get(i), e));
+            } catch (RetrieableException e) {
+                results.add(createFailureResult(REL_RETRY, inputs.get(i), e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量请求：请求头相同的记录合并为一个批量请求，不同请求头的批量请求之间按最大并发请求数并发发送，结果按inputs的顺序返回
+     * @param attributes
+     * @param inputs
+     * @return
+     * @throws ProcessException
+     */
+    private List<Tuple<Relationship, Output>> handleBatchRequests(Map<String, String> attributes, List<Input> inputs) throws ProcessException {
+        List<Tuple<Relationship, Output>> results = new ArrayList<>(Collections.nCopies(inputs.size(), (Tuple<Relationship, Output>) null));
+        Map<Map<String, String>, List<Integer>> indexesByHeaders = new LinkedHashMap<>();
+        List<Map<String, Object>> variablesList = new ArrayList<>(inputs.size());
+        List<String> cacheKeys = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<String, Object> variables = new HashMap<>();
+            Map<String, String> headers = new HashMap<>();
+            buildVariables(inputs.get(i), attributes, variables, headers);
+            variablesList.add(variables);
+
+            String cacheKey = getCacheKey(variables, headers);
+            cacheKeys.add(cacheKey);
+            Map<String, Object> cached = getCachedResponse(cacheKey);
+            if (cached != null) {
+                setResult(results, inputs, i, cached, null);
+            } else {
+                indexesByHeaders.computeIfAbsent(headers, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<List<Integer>> groups = new ArrayList<>(indexesByHeaders.size());
+        List<CompletableFuture<List<Map<String, Object>>>> futures = new ArrayList<>(indexesByHeaders.size());
+        Semaphore permits = new Semaphore(maxConcurrentRequests);
+        try {
+            for (Map.Entry<Map<String, String>, List<Integer>> entry : indexesByHeaders.entrySet()) {
+                List<Map<String, Object>> groupVariables = new ArrayList<>(entry.getValue().size());
+                for (Integer index : entry.getValue()) {
+                    groupVariables.add(variablesList.get(index));
+                }
+
+                permits.acquire();
+                CompletableFuture<List<Map<String, Object>>> future;
+                try {
+                    future = client.requestBatchAsync(url, payload, groupVariables, null, entry.getKey());
+                } catch (RuntimeException e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                future.whenComplete((result, e) -> permits.release());
+                groups.add(entry.getValue());
+                futures.add(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("等待GraphQL请求完成时被中断。", e);
+        }
+
+        for (int g = 0; g < groups.size(); g++) {
+            List<Integer> indexes = groups.get(g);
+            List<Map<String, Object>> responses = null;
+            Throwable error = null;
+            try {
+                responses = futures.get(g).get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("等待GraphQL请求完成时被中断。", e);
+            }
+
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = indexes.get(i);
+                Map<String, Object> response = responses != null ? responses.get(i) : null;
+                cacheResponse(cacheKeys.get(index), response);
+                setResult(results, inputs, index, response, error);
+            }
+        }
+        return results;
+    }
+
+    private void setResult(List<Tuple<Relationship, Output>> results, List<Input> inputs, int index, Map<String, Object> response, Throwable error) {
+        try {
+            results.set(index, new Tuple<>(REL_SUCCESS, toOutput(response, error)));
+        } catch (BizException e) {
+            results.set(index, createFailureResult(REL_FAILURE, inputs.get(index), e));
+        } catch (RetrieableException e) {
+            results.set(index, createFailureResult(REL_RETRY, inputs.get(index), e));
+        }
+    }
+
+    /**
+     * 将GraphQL的响应转换为输出记录，响应中包含errors时抛出BizException，无法连接服务时抛出InvalidEnvironmentException
+     * @param results 响应内容
+     * @param cause 请求过程中出现的错误，没有错误时为null
+     * @return
+     * @throws ProcessException
+     */
+    private Output toOutput(Map<String, Object> results, Throwable cause) throws ProcessException {
         Output output = new Output();
         try {
-            Map<String, Object> results = client.request(url, payload, variables, null, headers);
+            if (cause != null) {
+                throw cause;
+            }
             Object errors = results.get("errors");
-            ComponentLog logger = getLogger();
 
             if (errors != null){
                 List<Map> errorList = (List<Map>) errors;
@@ -86,11 +86,11 @@ public class PartitionOnJson extends AbstractXNifiProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
         String patitionExprText = context.getProperty(PROP_PARTITION_EXPR).getValue();
         patitionExpr = MVEL.compileExpression(patitionExprText);
-        super.beforeProcess(context);
+        super.setup(context);
     }
 
     @Override
@@ -106,9 +106,9 @@ public abstract class AbstractRouteJsonProcessor<T> extends AbstractXNifiProcess
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
-        super.beforeProcess(context);
+        super.setup(context);
     }
 
     @Override
@@ -58,7 +58,7 @@ public class RouteOnJson extends AbstractRouteJsonProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         compileRouteExprMap = new HashMap<>();
         Map<String, String> routeExprMap = FlowFileUtils.getDynamicProperties(context);
         Set<Relationship> rels = routeRels;
@@ -70,6 +70,6 @@ public class RouteOnJson extends AbstractRouteJsonProcessor {
             }
         }
 
-        super.beforeProcess(context);
+        super.setup(context);
     }
 }
@@ -72,7 +72,7 @@ public class ScriptOnJson extends AbstractJsonRowBatchProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         String scriptText = context.getProperty(PROP_SCRIPT).getValue();
         if (StringUtils.isNotBlank(scriptText)){
             try {
@@ -83,7 +83,7 @@ public class ScriptOnJson extends AbstractJsonRowBatchProcessor {
         }else{
             compileScript = null; //当脚本设置为空时，则不执行脚本处理
         }
-        super.beforeProcess(context);
+        super.setup(context);
     }
 
     protected Map<String, Object> createScriptContext(Map<String, String> attributes, Map<String, Object> input, Map<String, Object> output,ProcessContext processContext){
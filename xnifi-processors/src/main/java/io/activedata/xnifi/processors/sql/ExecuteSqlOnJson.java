@@ -3,11 +3,13 @@ package io.activedata.xnifi.processors.sql;
 import io.activedata.xnifi.core.Input;
 import io.activedata.xnifi.core.Output;
 import io.activedata.xnifi.core.batch.AbstractJsonRowBatchProcessor;
+import io.activedata.xnifi.dbutils.PreparedStatementCache;
+import io.activedata.xnifi.dbutils.ThreadBoundTransaction;
+import io.activedata.xnifi.dbutils.utils.NamedParamSql;
 import io.activedata.xnifi.dbutils.utils.NamedParamSqlUtils;
 import io.activedata.xnifi.exceptions.BizException;
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
 import jodd.bean.BeanUtil;
-import org.apache.commons.dbutils.DbUtils;
-import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.handlers.MapHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
 import org.apache.commons.dbutils.handlers.ScalarHandler;
@@ -24,7 +26,6 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,12 +40,12 @@ public class ExecuteSqlOnJson extends AbstractJsonRowBatchProcessor {
 
     private static final BeanUtil BU = BeanUtil.silent;
     private static final String KEY_RESULT = "result";
-    private QueryRunner queryRunner = new QueryRunner();
     private ScalarHandler<Integer> scalarHandler = new ScalarHandler();
     private MapListHandler mapListHandler = new MapListHandler();
-    private volatile Connection conn;
+    private final ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+    private volatile DBCPService dbcpService;
     private volatile String sqlMode;
-    private volatile String originalSql;
+    private volatile NamedParamSql namedParamSql;
 
     private static final String SQLMODE_QUERY = "SELECT/PROCEDURE";
     private static final String SQLMODE_UPDATE = "INSERT/UPDATE/DELETE";
@@ -87,30 +88,47 @@ public class ExecuteSqlOnJson extends AbstractJsonRowBatchProcessor {
         return props;
     }
 
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+
+        sqlMode = context.getProperty(PROP_SQL_MODE).getValue();
+        namedParamSql = NamedParamSqlUtils.compile(context.getProperty(PROP_SQL).getValue());
+        dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
+    }
+
     @Override
     protected void beforeProcess(ProcessContext context) throws ProcessException {
         super.beforeProcess(context);
+        transaction.begin(dbcpService); //连接在第一次执行SQL时才取得
+    }
 
-        sqlMode = context.getProperty(PROP_SQL_MODE).getValue();
-        originalSql = context.getProperty(PROP_SQL).getValue();
-        DBCPService dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
-        conn = dbcpService.getConnection();
+    @Override
+    protected void beforeCommit(ProcessContext context) throws ProcessException {
+        try {
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new InvalidEnvironmentException("提交数据库事务失败：", e);
+        }
+        super.beforeCommit(context);
+    }
 
+    @Override
+    protected void onRollback() {
+        transaction.rollback();
+        super.onRollback();
     }
 
     @Override
     protected void afterProcess() {
-        DbUtils.closeQuietly(conn);
+        transaction.end();
         super.afterProcess();
     }
 
     @Override
     protected Output handleProcessRow(Map<String, String> attributes, Input input, FlowFile flowFile, ProcessContext context) throws ProcessException {
-        String[] paramNames = NamedParamSqlUtils.paramNames(originalSql);
-        String sql = NamedParamSqlUtils.toNativeSql(originalSql);
-
         try {
-            Output output = excuteSqlWithMode(attributes, input);
+            Output output = transaction.get().executeInSavepoint(() -> excuteSqlWithMode(attributes, input)); //记录出错时只回滚该记录
             return output;
         } catch (SQLException e) {
             throw new BizException("执行SQL语句时出现错误：" + ExceptionUtils.getStackTrace(e));
@@ -118,17 +136,18 @@ public class ExecuteSqlOnJson extends AbstractJsonRowBatchProcessor {
     }
 
     private Output excuteSqlWithMode(Map<String, String> attributes, Input input) throws SQLException {
-        String[] paramNames = NamedParamSqlUtils.paramNames(originalSql);
-        String sql = NamedParamSqlUtils.toNativeSql(originalSql);
+        String[] paramNames = namedParamSql.getParamNames();
+        String sql = namedParamSql.getNativeSql();
+        PreparedStatementCache statementCache = transaction.get().getStatementCache();
 
        if (SQLMODE_UPDATE.equals(sqlMode)) {
             Output output = new Output();
             Integer count = 0;
             if (paramNames != null && paramNames.length > 0) {
                 Object[] params = getNamedParams(paramNames, attributes, input);
-                count = queryRunner.execute(conn, sql, params);
+                count = statementCache.execute(sql, params);
             } else {
-                count = queryRunner.execute(conn, originalSql);
+                count = statementCache.execute(sql);
             }
             output.put(KEY_RESULT, count);
             return output;
@@ -136,10 +155,10 @@ public class ExecuteSqlOnJson extends AbstractJsonRowBatchProcessor {
             Output output = new Output();
             if (paramNames != null && paramNames.length > 0) {
                 Object[] params = getNamedParams(paramNames, attributes, input);
-                List<List<Map<String, Object>>> resultsList = queryRunner.execute(conn, sql, mapListHandler, params);
+                List<List<Map<String, Object>>> resultsList = statementCache.execute(sql, mapListHandler, params);
                 return createOutput(resultsList);
             } else {
-                List<List<Map<String, Object>>> resultsList = queryRunner.execute(conn, sql, mapListHandler);
+                List<List<Map<String, Object>>> resultsList = statementCache.execute(sql, mapListHandler);
                 return createOutput(resultsList);
             }
         }
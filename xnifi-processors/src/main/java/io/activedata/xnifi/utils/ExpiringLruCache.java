@@ -0,0 +1,81 @@
+package io.activedata.xnifi.utils;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带过期时间的LRU缓存，条目在放入后超过存活时间即视为不存在，容量满时按最近最少使用策略淘汰；所有操作均已同步
+ * @param <K>
+ * @param <V>
+ */
+public class ExpiringLruCache<K, V> {
+    private final LruCache<K, Entry<V>> entries;
+    private final long ttlMillis;
+
+    public ExpiringLruCache(int maxSize, long ttl, TimeUnit unit) {
+        Validate.isTrue(ttl > 0, "参数ttl必须大于0。");
+        this.entries = new LruCache<>(maxSize);
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    /**
+     * 取得缓存的值，不存在或已过期时返回null，过期的条目会被移除
+     * @param key
+     * @return
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 当前条目数，包括已过期但尚未移除的条目
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getMaxSize() {
+        return entries.getMaxSize();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
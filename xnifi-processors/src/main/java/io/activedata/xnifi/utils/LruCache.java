@@ -0,0 +1,91 @@
+package io.activedata.xnifi.utils;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 按最近最少使用策略淘汰的有界缓存，所有操作均已同步，可在多个线程间共享
+ * @param <K>
+ * @param <V>
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> entries;
+
+    public LruCache(int maxSize) {
+        Validate.isTrue(maxSize > 0, "参数maxSize必须大于0。");
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    onEvicted(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * 取得缓存的值，不存在时使用loader加载并放入缓存；loader返回null时不缓存
+     * @param key
+     * @param loader
+     * @return
+     */
+    public synchronized V get(K key, Function<? super K, ? extends V> loader) {
+        V value = entries.get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                entries.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * 取得当前所有值的快照
+     * @return
+     */
+    public synchronized List<V> values() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 条目因超出容量被淘汰时调用，子类可覆盖以释放资源
+     * @param key
+     * @param value
+     */
+    protected void onEvicted(K key, V value) {
+    }
+}
@@ -3,6 +3,9 @@ package io.activedata.xnifi2.core.batch;
 import com.alibaba.fastjson.JSON;
 import com.google.common.base.Charsets;
 import io.activedata.xnifi.core.AbstractXNifiProcessor;
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
+import io.activedata.xnifi.utils.NamedThreadFactory;
+import io.activedata.xnifi2.core.batch.callback.OrderedParallelInputStreamCallback;
 import io.activedata.xnifi2.core.batch.callback.SyncInputStreamCallback;
 import io.activedata.xnifi2.core.batch.reader.AvroRecordReaderFactory;
 import io.activedata.xnifi2.core.batch.reader.JsonRecordReaderFactory;
@@ -20,18 +23,25 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.serialization.RecordReaderFactory;
 import org.apache.nifi.serialization.RecordSetWriterFactory;
 import org.apache.nifi.serialization.record.RecordSchema;
 import org.apache.nifi.serialization.record.util.DataTypeUtils;
 import org.apache.nifi.util.Tuple;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 抽象的批处理处理器，引入了ProcessCallback机制；同时为了便于Callback逻辑的实现，该Processor实现了CallbackHandler接口
+ * <p>
+ * 并行处理线程数大于1时，processRecord会在多个工作线程中同时调用，子类需保证其线程安全
  *
  * @author MattU
  */
@@ -92,10 +102,42 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
             .addValidator(JsonValidator.INSTANCE)
             .build();
 
+    public static final PropertyDescriptor PROP_RECORD_CHUNK_SIZE = new PropertyDescriptor.Builder()
+            .name("record.chunk.size")
+            .displayName("批量处理记录数")
+            .description("每次交给处理器批量处理的记录数，为1时逐条处理；支持批量处理的处理器可将一批记录合并为一次交互。")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_PARALLELISM = new PropertyDescriptor.Builder()
+            .name("record.parallelism")
+            .displayName("并行处理线程数")
+            .description("同时处理记录的线程数。为1时在当前线程中逐条处理；大于1时记录被分发到工作线程池并行处理，处理结果仍按输入顺序写出。")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_REORDER_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("record.reorder.buffer.size")
+            .displayName("重排序缓冲区大小")
+            .description("并行处理时已提交但尚未按顺序写出的最大记录数，缓冲区已满时暂停读取，用于限制内存占用。")
+            .defaultValue("1000")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     protected volatile String inputRecordType;
     protected volatile String outputRecordType;
     protected volatile String outputRecordExample;
     protected volatile String outputRecordStrategy;
+    protected volatile int reorderBufferSize;
+    protected volatile int chunkSize = 1;
+
+    private volatile ExecutorService executor;
+    private volatile RecordSchema outputSchema;
 
     @Override
     protected final void process(ProcessContext context, ProcessSession session) throws ProcessException {
@@ -137,14 +179,18 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
 
         boolean mergeSchema = WSS_BOTH_INPUT_AND_OUTPUT.equals(outputRecordStrategy);
         if (RECORD_TYPE_AVRO.equals(outputRecordType)) {
-            RecordSchema outputSchema = getOutputSchema();
+            RecordSchema outputSchema = getCachedOutputSchema();
             writerFactory = new AvroRecordWriterFactory(outputSchema, mergeSchema);
         } else if (RECORD_TYPE_JSON.equals(outputRecordType)) {
-            RecordSchema outputSchema = getOutputSchema();
+            RecordSchema outputSchema = getCachedOutputSchema();
             writerFactory = new JsonRecordWriterFactory(outputSchema, mergeSchema);
         }
 
-        return new SyncInputStreamCallback(this, readerFactory, writerFactory, logger, original, context, session, outputRecordStrategy);
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor != null) {
+            return new OrderedParallelInputStreamCallback(this, readerFactory, writerFactory, logger, original, context, session, outputRecordStrategy, chunkSize, currentExecutor, reorderBufferSize);
+        }
+        return new SyncInputStreamCallback(this, readerFactory, writerFactory, logger, original, context, session, outputRecordStrategy, chunkSize);
     }
 
     @Override
@@ -153,6 +199,35 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
         return result;
     }
 
+    @Override
+    public List<RecordResult> processRecords(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        return processRecordsInternal(attributes, inputs, original, context);
+    }
+
+    /**
+     * 批量处理多条记录，返回的结果与inputs一一对应，默认逐条调用processRecordInternal，支持批量交互的子类可改写该方法
+     *
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    protected List<RecordResult> processRecordsInternal(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        List<RecordResult> results = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            try {
+                results.add(RecordResult.success(processRecordInternal(attributes, input, original, context)));
+            } catch (InvalidEnvironmentException e) { //运行环境不可用时中断整个处理过程
+                throw e;
+            } catch (Exception e) {
+                results.add(RecordResult.error(e));
+            }
+        }
+        return results;
+    }
+
     /**
      * 对每条记录进行处理，如果处理过程中出现错误可抛出异常，后续会根据异常类型对记录进行分别处理
      * BizException：该记录会被路由到错误的队列中
@@ -168,6 +243,19 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
      */
     protected abstract Tuple<Relationship, Output> processRecordInternal(Map<String, String> attributes, Input input, FlowFile original, ProcessContext context) throws Exception;
 
+    /**
+     * 取得缓存的输出Schema，第一次使用时通过getOutputSchema推断，处理器停止前不再重复推断
+     * @return
+     */
+    protected RecordSchema getCachedOutputSchema() {
+        RecordSchema schema = outputSchema;
+        if (schema == null) {
+            schema = getOutputSchema();
+            outputSchema = schema;
+        }
+        return schema;
+    }
+
     /**
      * 默认通过OutputRecordExample来取得Output的RecordSchema，可继承改写
      * @return
@@ -178,11 +266,33 @@ public abstract class AbstractBatchProcessor extends AbstractXNifiProcessor impl
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         inputRecordType = context.getProperty(PROP_INPUT_RECORD_TYPE).getValue();
         outputRecordType = context.getProperty(PROP_OUTPUT_RECORD_TYPE).getValue();
         outputRecordExample = context.getProperty(PROP_OUTPUT_RECORD_EXAMPLE).getValue();
         outputRecordStrategy = context.getProperty(PROP_OUTPUT_RECORD_STRATEGY).getValue();
+        Integer chunkSizeValue = context.getProperty(PROP_RECORD_CHUNK_SIZE).asInteger();
+        chunkSize = chunkSizeValue == null ? 1 : chunkSizeValue; //未配置该属性的处理器逐条处理
+        outputSchema = null;
+
+        Integer parallelismValue = context.getProperty(PROP_PARALLELISM).asInteger();
+        int parallelism = parallelismValue == null ? 1 : parallelismValue; //未配置该属性的处理器在当前线程中处理
+        Integer reorderBufferSizeValue = context.getProperty(PROP_REORDER_BUFFER_SIZE).asInteger();
+        reorderBufferSize = reorderBufferSizeValue == null ? Integer.parseInt(PROP_REORDER_BUFFER_SIZE.getDefaultValue()) : reorderBufferSizeValue;
+        if (parallelism > 1) {
+            executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory(getName() + "-" + getIdentifier()));
+        }
+    }
+
+    @Override
+    protected void cleanup() {
+        ExecutorService oldExecutor = executor;
+        executor = null;
+        if (oldExecutor != null) {
+            oldExecutor.shutdownNow();
+        }
+        outputSchema = null;
+        super.cleanup();
     }
 
     @Override
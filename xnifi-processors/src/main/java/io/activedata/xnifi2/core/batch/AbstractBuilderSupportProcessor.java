@@ -13,6 +13,8 @@ import org.apache.nifi.util.Tuple;
 import org.mvel2.MVEL;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractBuilderSupportProcessor extends AbstractBatchProcessor {
@@ -61,19 +63,14 @@ public abstract class AbstractBuilderSupportProcessor extends AbstractBatchProce
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
 
         String inputScript = context.getProperty(PROP_RECORD_INPUT_BUILDER).getValue();
         String outputScript = context.getProperty(PROP_RECORD_OUTPUT_BUILDER).getValue();
 
-        if (StringUtils.isNotBlank(inputScript)) {
-            inputBuilder = MVEL.compileExpression(inputScript);
-        }
-
-        if (StringUtils.isNotBlank(outputScript)) {
-            outputBuilder = MVEL.compileExpression(outputScript);
-        }
+        inputBuilder = StringUtils.isNotBlank(inputScript) ? MVEL.compileExpression(inputScript) : null;
+        outputBuilder = StringUtils.isNotBlank(outputScript) ? MVEL.compileExpression(outputScript) : null;
     }
 
     /**
@@ -92,4 +89,34 @@ public abstract class AbstractBuilderSupportProcessor extends AbstractBatchProce
         Output buildedOutput = buildOutput(buildedInput, result.getValue(), attributes);
         return new Tuple<Relationship, Output>(result.getKey(), buildedOutput);
     }
+
+    /**
+     * 根据脚本对批量处理的Input、Output进行预处理
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public List<RecordResult> processRecords(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        List<Input> buildedInputs = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            buildedInputs.add(buildInput(input, attributes));
+        }
+
+        List<RecordResult> results = super.processRecords(attributes, buildedInputs, original, context);
+        List<RecordResult> buildedResults = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            RecordResult result = results.get(i);
+            if (result.isError()) {
+                buildedResults.add(result);
+            } else {
+                Output buildedOutput = buildOutput(buildedInputs.get(i), result.getOutput(), attributes);
+                buildedResults.add(RecordResult.success(new Tuple<>(result.getRelationship(), buildedOutput)));
+            }
+        }
+        return buildedResults;
+    }
 }
@@ -6,6 +6,8 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.util.Tuple;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public interface RecordProcessHandler {
@@ -19,4 +21,27 @@ public interface RecordProcessHandler {
      * @throws ProcessException
      */
     Tuple<Relationship, Output> processRecord(Map<String, String> attributes, Input input, FlowFile original, ProcessContext context) throws Exception;
+
+    /**
+     * 批量处理FlowFile中的多条数据记录，返回的结果与inputs一一对应；
+     * 默认逐条调用processRecord，单条记录出现的错误记录在对应的结果中，不影响其他记录。
+     * 可合并请求的实现（如SQL批量执行）可改写该方法，将多次交互合并为一次；如果抛出异常则整批记录都视为处理失败
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    default List<RecordResult> processRecords(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        List<RecordResult> results = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            try {
+                results.add(RecordResult.success(processRecord(attributes, input, original, context)));
+            } catch (Exception e) {
+                results.add(RecordResult.error(e));
+            }
+        }
+        return results;
+    }
 }
@@ -0,0 +1,46 @@
+package io.activedata.xnifi2.core.batch;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.Tuple;
+
+/**
+ * 批量处理时单条记录的处理结果，成功时包含输出队列和输出记录，失败时包含处理过程中出现的异常
+ */
+public class RecordResult {
+    private final Relationship relationship;
+    private final Output output;
+    private final Exception error;
+
+    private RecordResult(Relationship relationship, Output output, Exception error) {
+        this.relationship = relationship;
+        this.output = output;
+        this.error = error;
+    }
+
+    public static RecordResult success(Tuple<Relationship, Output> result) {
+        Validate.notNull(result, "参数result不能为null。");
+        return new RecordResult(result.getKey(), result.getValue(), null);
+    }
+
+    public static RecordResult error(Exception error) {
+        Validate.notNull(error, "参数error不能为null。");
+        return new RecordResult(null, null, error);
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    public Relationship getRelationship() {
+        return relationship;
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,105 @@
+package io.activedata.xnifi2.core.batch.callback;
+
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
+import io.activedata.xnifi2.core.batch.AbstractBatchProcessor;
+import org.apache.commons.lang3.Validate;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.util.Tuple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 并行处理记录并按输入顺序写出的回调
+ * <p>
+ * 记录按批被分发到工作线程池中处理，处理结果暂存在有界的重排序缓冲区中，由onTrigger线程按输入顺序依次写入各队列的写入器；
+ * 缓冲区已满时先等待最早提交的一批记录完成，再继续读取
+ */
+public class OrderedParallelInputStreamCallback extends SyncInputStreamCallback {
+
+    private Deque<Tuple<Future<List<Tuple<Relationship, Record>>>, List<Record>>> pending = new ArrayDeque<>();
+    private int pendingRecords = 0;
+
+    private ExecutorService executor;
+    private int reorderBufferSize;
+
+    public OrderedParallelInputStreamCallback(AbstractBatchProcessor processor, RecordReaderFactory readerFactory, RecordSetWriterFactory writerFactory, ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session, String writerSchemaStrategy, int chunkSize, ExecutorService executor, int reorderBufferSize) {
+        super(processor, readerFactory, writerFactory, logger, original, context, session, writerSchemaStrategy, chunkSize);
+        Validate.notNull(executor, "参数executor不能为null。");
+        Validate.isTrue(reorderBufferSize > 0, "参数reorderBufferSize必须大于0。");
+
+        this.executor = executor;
+        this.reorderBufferSize = reorderBufferSize;
+    }
+
+    @Override
+    public void process(InputStream in) throws IOException {
+        try {
+            super.process(in);
+        } finally {
+            cancelPending();
+        }
+    }
+
+    @Override
+    protected void processAndWriteRecords(List<Record> inputRecords, FlowFile flowFile, ProcessContext context) throws Exception {
+        while (!pending.isEmpty() && pendingRecords + inputRecords.size() > reorderBufferSize) {
+            writeCompleted(); //缓冲区已满，先写出最早提交的一批记录
+        }
+        Future<List<Tuple<Relationship, Record>>> future = executor.submit(() -> processRecordsSafely(inputRecords, flowFile, context));
+        pending.add(new Tuple<>(future, inputRecords));
+        pendingRecords += inputRecords.size();
+    }
+
+    @Override
+    protected void flushRecords() throws Exception {
+        while (!pending.isEmpty()) {
+            writeCompleted();
+        }
+    }
+
+    /**
+     * 等待最早提交的一批记录处理完成并写出
+     * @throws Exception
+     */
+    private void writeCompleted() throws Exception {
+        Tuple<Future<List<Tuple<Relationship, Record>>>, List<Record>> head = pending.poll();
+        pendingRecords -= head.getValue().size();
+        writeResults(head.getValue(), waitForCompleted(head.getKey()));
+    }
+
+    private List<Tuple<Relationship, Record>> waitForCompleted(Future<List<Tuple<Relationship, Record>>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidEnvironmentException("等待记录处理完成时线程被中断。", e);
+        } catch (ExecutionException e) {
+            throw new InvalidEnvironmentException("工作线程处理记录时出现无法处理的错误：", e.getCause());
+        }
+    }
+
+    /**
+     * 出现错误时取消所有尚未完成的任务
+     */
+    private void cancelPending() {
+        Tuple<Future<List<Tuple<Relationship, Record>>>, List<Record>> head;
+        while ((head = pending.poll()) != null) {
+            head.getKey().cancel(true);
+        }
+        pendingRecords = 0;
+    }
+}
@@ -9,6 +9,7 @@ import io.activedata.xnifi.utils.ContextUtils;
 import io.activedata.xnifi2.core.batch.AbstractBatchProcessor;
 import io.activedata.xnifi2.core.batch.Input;
 import io.activedata.xnifi2.core.batch.Output;
+import io.activedata.xnifi2.core.batch.RecordResult;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.nifi.flowfile.FlowFile;
@@ -28,6 +29,7 @@ import org.apache.nifi.util.Tuple;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -35,7 +37,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- *
+ * 在当前线程中逐条读取、处理并写出记录的回调
  */
 public class SyncInputStreamCallback implements InputStreamCallback {
     private static final String FIELD_ERROR_MESSAGE = "errorMessage";
@@ -53,13 +55,14 @@ public class SyncInputStreamCallback implements InputStreamCallback {
     private ProcessContext context;
     private ProcessSession session;
     private FlowFile original;
-    private RecordSchema inputSchema;
-    private RecordSchema errorSchema;
-    private RecordSchema outputSchema;
+    private volatile RecordSchema inputSchema;
+    private volatile RecordSchema errorSchema;
+    private volatile RecordSchema outputSchema;
     private Map<String, String> attributes;
     private String writerSchemaStrategy;
+    private int chunkSize;
 
-    public SyncInputStreamCallback(AbstractBatchProcessor processor, RecordReaderFactory readerFactory, RecordSetWriterFactory writerFactory, ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session, String writerSchemaStrategy) {
+    public SyncInputStreamCallback(AbstractBatchProcessor processor, RecordReaderFactory readerFactory, RecordSetWriterFactory writerFactory, ComponentLog logger, FlowFile original, ProcessContext context, ProcessSession session, String writerSchemaStrategy, int chunkSize) {
         Validate.notNull(processor, "参数processor不能为null。");
         Validate.notNull(readerFactory, "参数readerFactory不能为null。");
         Validate.notNull(writerFactory, "参数writerFactory不能为null。");
@@ -68,6 +71,7 @@ public class SyncInputStreamCallback implements InputStreamCallback {
         Validate.notNull(context, "参数context不能为null。");
         Validate.notNull(session, "参数session不能为null。");
         Validate.notBlank(writerSchemaStrategy, "参数writerSchemaStrategy不能为空。");
+        Validate.isTrue(chunkSize > 0, "参数chunkSize必须大于0。");
 
         this.processor = processor;
         this.readerFactory = readerFactory;
@@ -78,6 +82,7 @@ public class SyncInputStreamCallback implements InputStreamCallback {
         this.session = session;
         this.attributes = ContextUtils.createAttributes(context, original);
         this.writerSchemaStrategy = writerSchemaStrategy;
+        this.chunkSize = chunkSize;
     }
 
     @Override
@@ -91,10 +96,19 @@ public class SyncInputStreamCallback implements InputStreamCallback {
             } catch (Exception e) {
                 logger.debug("WriterFactory无法提供OutputSchema。");
             } // 根据WriterFactory初始化OutputSchema，如果WriterFactory无法提供则使用第一条输出记录来计算OutputSchema
+            List<Record> chunk = new ArrayList<>(chunkSize);
             Record record;
             while ((record = reader.nextRecord()) != null) {
-                processAndWriteRecord(record, original, context);
+                chunk.add(record);
+                if (chunk.size() >= chunkSize) {
+                    processAndWriteRecords(chunk, original, context);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                processAndWriteRecords(chunk, original, context);
             }
+            flushRecords();
             closeWriters();
         } catch (final Exception e) {
             e.printStackTrace();
@@ -102,45 +116,121 @@ public class SyncInputStreamCallback implements InputStreamCallback {
         }
     }
 
-    protected void processAndWriteRecord(Record inputRecord, FlowFile flowFile, ProcessContext context) throws Exception {
+    protected void processAndWriteRecords(List<Record> inputRecords, FlowFile flowFile, ProcessContext context) throws Exception {
+        List<Tuple<Relationship, Record>> results = processRecordsSafely(inputRecords, flowFile, context);
+        writeResults(inputRecords, results);
+    }
+
+    /**
+     * 按输入顺序写出一批处理结果，某条记录写出失败时只将该记录写入重试或失败队列，只能在onTrigger线程中调用
+     * @param inputRecords
+     * @param results 与inputRecords一一对应的处理结果
+     * @throws Exception 错误记录也无法写出时抛出
+     */
+    protected void writeResults(List<Record> inputRecords, List<Tuple<Relationship, Record>> results) throws Exception {
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                writeResult(results.get(i));
+            } catch (Exception e) {
+                writeResult(createErrorRecord(inputRecords.get(i), e));
+            }
+        }
+    }
+
+    /**
+     * 写出尚未写出的记录，在所有记录读取完毕、关闭写入器之前调用
+     * @throws Exception
+     */
+    protected void flushRecords() throws Exception {
+    }
+
+    /**
+     * 批量处理多条记录，返回的结果与输入记录一一对应；处理过程中出现的错误将被转换为重试或失败记录，该方法不访问会话，可在工作线程中调用
+     * @param inputRecords
+     * @param flowFile
+     * @param context
+     * @return
+     */
+    protected List<Tuple<Relationship, Record>> processRecordsSafely(List<Record> inputRecords, FlowFile flowFile, ProcessContext context) {
+        List<Input> inputs = new ArrayList<>(inputRecords.size());
+        for (Record inputRecord : inputRecords) {
+            inputs.add(new Input(inputRecord));
+        }
+
+        List<RecordResult> results;
         try {
-            Tuple<Relationship, Record> result = processRecord(attributes, inputRecord, original, context);
-            writeRecord(outputSchema, result.getValue(), result.getKey());
-        } catch (RetrieableException e) {   //自定义错误,可以重新运行的错误
-            String errorMessage = ExceptionUtils.getStackTrace(e);
+            results = processor.processRecords(attributes, inputs, flowFile, context);
+        } catch (InvalidEnvironmentException e) { //运行环境不可用时中断整个处理过程
+            throw e;
+        } catch (Exception e) {  //整批记录都处理失败
+            results = new ArrayList<>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                results.add(RecordResult.error(e));
+            }
+        }
+        Validate.isTrue(results != null && results.size() == inputs.size(), "批量处理的结果数量与输入记录数量不一致。");
+
+        List<Tuple<Relationship, Record>> outputRecords = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            RecordResult result = results.get(i);
+            if (result.isError()) {
+                outputRecords.add(createErrorRecord(inputRecords.get(i), result.getError()));
+            } else {
+                try {
+                    outputRecords.add(createOutputRecord(inputs.get(i), result.getOutput()));
+                } catch (Exception e) { //单条记录转换失败时只影响该记录
+                    outputRecords.add(createErrorRecord(inputRecords.get(i), e));
+                }
+            }
+        }
+        return outputRecords;
+    }
+
+    /**
+     * 将处理结果写入对应队列的写入器，只能在onTrigger线程中调用
+     * @param result
+     * @throws SchemaNotFoundException
+     * @throws IOException
+     */
+    protected void writeResult(Tuple<Relationship, Record> result) throws SchemaNotFoundException, IOException {
+        Relationship relationship = result.getKey();
+        RecordSchema schema = processor.REL_SUCCESS.equals(relationship) ? outputSchema : errorSchema;
+        writeRecord(schema, result.getValue(), relationship);
+    }
+
+    /**
+     * 根据处理错误创建重试或失败记录，RetrieableException写入重试队列，其他错误写入失败队列
+     * @param inputRecord
+     * @param e
+     * @return
+     */
+    protected Tuple<Relationship, Record> createErrorRecord(Record inputRecord, Exception e) {
+        String errorMessage = ExceptionUtils.getStackTrace(e);
+        Map<String, Object> inputData = new LinkedHashMap<>(inputRecord.toMap());
+        inputData.put(FIELD_ERROR_MESSAGE, errorMessage);
+        inputData.put(FIELD_AT_TIME, Dates.timestamp());
+        MapRecord errorRecord = new MapRecord(errorSchema, inputData);
+        if (e instanceof RetrieableException) {   //自定义错误,可以重新运行的错误
             logger.debug("数据处理错误，写入重试队列：" + errorMessage + "。");
-            Map<String, Object> inputData = new LinkedHashMap<>(inputRecord.toMap());
-            inputData.put(FIELD_ERROR_MESSAGE, errorMessage);
-            inputData.put(FIELD_AT_TIME, Dates.timestamp());
-            MapRecord retryRecord = new MapRecord(errorSchema, inputData);
-            writeRecord(errorSchema, retryRecord, processor.REL_RETRY);
-        } catch (Exception e) {
-            e.printStackTrace();
-            String errorMessage = ExceptionUtils.getStackTrace(e);
+            return new Tuple<>(processor.REL_RETRY, errorRecord);
+        } else {
             logger.debug("数据处理错误，写入失败队列：" + errorMessage + "。");
-            Map<String, Object> inputData = new LinkedHashMap<>(inputRecord.toMap());
-            inputData.put(FIELD_ERROR_MESSAGE, errorMessage);
-            inputData.put(FIELD_AT_TIME, Dates.timestamp());
-            MapRecord failureRecord = new MapRecord(errorSchema, inputData);
-            writeRecord(errorSchema, failureRecord, processor.REL_FAILURE);
+            return new Tuple<>(processor.REL_FAILURE, errorRecord);
         }
     }
 
-    protected Tuple<Relationship, Record> processRecord(Map<String, String> attributes, Record inputRecord, FlowFile flowFile, ProcessContext context) throws Exception {
-
-        Input input = new Input(inputRecord);
-        Tuple<Relationship, Output> result = processor.processRecord(attributes, input, flowFile, context);
-        initSchemas(input, result.getValue());
+    protected Tuple<Relationship, Record> createOutputRecord(Input input, Output output) {
+        initSchemas(input, output);
         if (processor.WSS_BOTH_INPUT_AND_OUTPUT.equals(writerSchemaStrategy)) {
             Output inheritResult = new Output();
             inheritResult.putAll(input);
-            inheritResult.putAll(result.getValue());
+            inheritResult.putAll(output);
             inheritResult.put(FIELD_AT_TIME, Dates.timestamp());
             MapRecord outputRecord = new MapRecord(this.outputSchema, inheritResult);
             return new Tuple<>(processor.REL_SUCCESS, outputRecord);
         } else {
-            result.getValue().put(FIELD_AT_TIME, Dates.timestamp());
-            MapRecord outputRecord = new MapRecord(this.outputSchema, result.getValue());
+            output.put(FIELD_AT_TIME, Dates.timestamp());
+            MapRecord outputRecord = new MapRecord(this.outputSchema, output);
             return new Tuple<>(processor.REL_SUCCESS, outputRecord);
         }
     }
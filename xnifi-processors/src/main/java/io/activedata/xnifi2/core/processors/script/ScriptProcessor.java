@@ -46,6 +46,8 @@ public class ScriptProcessor extends AbstractBatchProcessor {
         properties.add(PROP_OUTPUT_RECORD_EXAMPLE);
         properties.add(PROP_OUTPUT_RECORD_STRATEGY);
         properties.add(PROP_SCRIPT);
+        properties.add(PROP_PARALLELISM);
+        properties.add(PROP_REORDER_BUFFER_SIZE);
         return properties;
     }
 
@@ -67,7 +69,7 @@ public class ScriptProcessor extends AbstractBatchProcessor {
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         String scriptText = context.getProperty(PROP_SCRIPT).getValue();
         if (StringUtils.isNotBlank(scriptText)){
             try {
@@ -78,7 +80,7 @@ public class ScriptProcessor extends AbstractBatchProcessor {
         }else{
             compileScript = null; //当脚本设置为空时，则不执行脚本处理
         }
-        super.beforeProcess(context);
+        super.setup(context);
     }
 
     protected Map<String, Object> createScriptContext(Map<String, String> attributes, Map<String, Object> input, Map<String, Object> output,ProcessContext processContext){
@@ -47,8 +47,8 @@ public abstract class AbstractBatchSqlProcessor extends AbstractBuilderSupportPr
 
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
-        super.beforeProcess(context);
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
 
         originalSql = context.getProperty(PROP_SQL).getValue();
         poolService  = context.getProperty(PROP_DBCP_SERVICE).asControllerService(JdbcConnectionPoolService.class);
@@ -56,9 +56,9 @@ public abstract class AbstractBatchSqlProcessor extends AbstractBuilderSupportPr
     }
 
     @Override
-    protected void afterProcess() {
+    protected void cleanup() {
         sql2o = null;
-        super.afterProcess();
+        super.cleanup();
     }
 
     /**
@@ -57,14 +57,16 @@ public class BatchSelectProcessor extends AbstractBatchSqlProcessor {
         props.add(PROP_OUTPUT_RECORD_TYPE);
         props.add(PROP_OUTPUT_RECORD_EXAMPLE);
         props.add(PROP_RECORD_INPUT_BUILDER);
-        props.add(PROP_RECORD_OUTPUT_BUILDER);
+        props.add(PROP_RECORD_OUTPUT_BUILDER); //查询没有批量实现，不提供批量处理记录数
+        props.add(PROP_PARALLELISM);
+        props.add(PROP_REORDER_BUFFER_SIZE);
         return props;
     }
 
     @Override
-    protected void beforeProcess(ProcessContext context) throws ProcessException {
+    protected void setup(ProcessContext context) throws ProcessException {
         sqlMode = context.getProperty(PROP_SQL_MODE).getValue();
-        super.beforeProcess(context);
+        super.setup(context);
     }
 
     @Override
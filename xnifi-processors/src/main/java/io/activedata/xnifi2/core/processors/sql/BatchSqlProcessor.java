@@ -1,11 +1,15 @@
 package io.activedata.xnifi2.core.processors.sql;
 
+import io.activedata.xnifi.dbutils.PreparedStatementCache;
+import io.activedata.xnifi.dbutils.ThreadBoundTransaction;
+import io.activedata.xnifi.dbutils.TransactionalConnection;
+import io.activedata.xnifi.dbutils.utils.NamedParamSql;
 import io.activedata.xnifi.dbutils.utils.NamedParamSqlUtils;
+import io.activedata.xnifi.exceptions.InvalidEnvironmentException;
 import io.activedata.xnifi2.core.batch.AbstractBuilderSupportProcessor;
 import io.activedata.xnifi2.core.batch.Input;
 import io.activedata.xnifi2.core.batch.Output;
-import org.apache.commons.dbutils.DbUtils;
-import org.apache.commons.dbutils.QueryRunner;
+import io.activedata.xnifi2.core.batch.RecordResult;
 import org.apache.commons.dbutils.handlers.MapHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
 import org.apache.nifi.annotation.behavior.InputRequirement;
@@ -22,8 +26,11 @@ import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.Tuple;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -36,12 +43,12 @@ import java.util.Map;
 public class BatchSqlProcessor extends AbstractBuilderSupportProcessor {
 
     private static final String KEY_RESULT = "result";
-    private QueryRunner queryRunner = new QueryRunner();
     private MapListHandler mapListHandler = new MapListHandler();
     private MapHandler mapHandler = new MapHandler();
-    private volatile Connection conn;
+    private final ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+    private volatile DBCPService dbcpService;
     private volatile String sqlMode;
-    private volatile String originalSql;
+    private volatile NamedParamSql namedParamSql;
 
     private static final String SQLMODE_QUERY_ONE = "SELECT_ONE";
     private static final String SQLMODE_QUERY = "SELECT/PROCEDURE";
@@ -85,62 +92,171 @@ public class BatchSqlProcessor extends AbstractBuilderSupportProcessor {
         props.add(PROP_OUTPUT_RECORD_EXAMPLE);
         props.add(PROP_RECORD_INPUT_BUILDER);
         props.add(PROP_RECORD_OUTPUT_BUILDER);
+        props.add(PROP_RECORD_CHUNK_SIZE);
         return props;
     }
 
+    @Override
+    protected void setup(ProcessContext context) throws ProcessException {
+        super.setup(context);
+
+        sqlMode = context.getProperty(PROP_SQL_MODE).getValue();
+        namedParamSql = NamedParamSqlUtils.compile(context.getProperty(PROP_SQL).getValue());
+        dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
+    }
+
     @Override
     protected void beforeProcess(ProcessContext context) throws ProcessException {
         super.beforeProcess(context);
+        transaction.begin(dbcpService); //连接在第一次执行SQL时才取得
+    }
 
-        sqlMode = context.getProperty(PROP_SQL_MODE).getValue();
-        originalSql = context.getProperty(PROP_SQL).getValue();
-        DBCPService dbcpService = context.getProperty(PROP_DBCP_SERVICE).asControllerService(DBCPService.class);
-        conn = dbcpService.getConnection();
+    @Override
+    protected void beforeCommit(ProcessContext context) throws ProcessException {
+        try {
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new InvalidEnvironmentException("提交数据库事务失败：", e);
+        }
+        super.beforeCommit(context);
+    }
+
+    @Override
+    protected void onRollback() {
+        transaction.rollback();
+        super.onRollback();
     }
 
     @Override
     protected void afterProcess() {
-        DbUtils.closeQuietly(conn);
+        transaction.end();
         super.afterProcess();
     }
 
     @Override
     protected Tuple<Relationship, Output> processRecordInternal(Map<String, String> attributes, Input input, FlowFile original, ProcessContext context) throws Exception {
-        Output output = excuteSqlWithMode(attributes, input);
+        Output output = transaction.get().executeInSavepoint(() -> excuteSqlWithMode(attributes, input)); //记录出错时只回滚该记录
         return new Tuple<>(REL_SUCCESS, output);
     }
 
+    /**
+     * INSERT/UPDATE/DELETE模式下使用JDBC批量执行一批记录，其他模式逐条执行
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    @Override
+    protected List<RecordResult> processRecordsInternal(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        if (SQLMODE_UPDATE.equals(sqlMode) && inputs.size() > 1) {
+            return executeBatchUpdate(attributes, inputs, original, context);
+        }
+        return super.processRecordsInternal(attributes, inputs, original, context);
+    }
+
+    /**
+     * 复用同一个PreparedStatement，每条记录addBatch后整批executeBatch，事务在会话提交前统一提交；
+     * 批量执行出现错误时回滚到本批开始前的保存点，再逐条执行以定位出错的记录
+     * @param attributes
+     * @param inputs
+     * @param original
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    private List<RecordResult> executeBatchUpdate(Map<String, String> attributes, List<Input> inputs, FlowFile original, ProcessContext context) throws Exception {
+        String[] paramNames = namedParamSql.getParamNames();
+        String sql = namedParamSql.getNativeSql();
+        TransactionalConnection tx = transaction.get();
+        Connection conn = tx.getConnection();
+
+        List<Object[]> paramsList = new ArrayList<>(inputs.size());
+        for (Input input : inputs) {
+            paramsList.add(getNamedParams(paramNames, attributes, input));
+        }
+
+        int[] counts;
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+            counts = tx.getStatementCache().executeBatch(sql, paramsList);
+            TransactionalConnection.releaseSavepoint(conn, savepoint);
+        } catch (BatchUpdateException e) {
+            rollbackBatch(conn, savepoint, e);
+            getLogger().warn("批量执行SQL时出现错误，已回滚本批{}条记录并逐条重新执行：{}", new Object[]{inputs.size(), e.getMessage()});
+            return super.processRecordsInternal(attributes, inputs, original, context);
+        } catch (SQLException e) {
+            rollbackBatch(conn, savepoint, e);
+            throw e;
+        }
+
+        List<RecordResult> results = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            int count = i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+            if (count == Statement.EXECUTE_FAILED) {
+                results.add(RecordResult.error(new SQLException("批量执行SQL时该记录执行失败。")));
+            } else {
+                Output output = new Output();
+                output.put(KEY_RESULT, count); //驱动无法提供影响行数时为SUCCESS_NO_INFO(-2)
+                results.add(RecordResult.success(new Tuple<>(REL_SUCCESS, output)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 回滚到本批开始前的保存点；死锁等事务回滚类错误（SQLState以40开头）说明数据库已回滚整个事务，
+     * 之前已写入成功队列的记录也随之失效，此时中止本次会话
+     * @param conn
+     * @param savepoint
+     * @param e
+     */
+    private static void rollbackBatch(Connection conn, Savepoint savepoint, SQLException e) {
+        String sqlState = e.getSQLState();
+        if (sqlState != null && sqlState.startsWith("40")) {
+            throw new InvalidEnvironmentException("数据库事务已被回滚：", e);
+        }
+        try {
+            conn.rollback(savepoint);
+        } catch (SQLException rollbackError) {
+            rollbackError.addSuppressed(e);
+            throw new InvalidEnvironmentException("回滚到保存点失败，数据库事务已不可用：", rollbackError);
+        }
+    }
+
     private Output excuteSqlWithMode(Map<String, String> attributes, Input input) throws SQLException {
-        String[] paramNames = NamedParamSqlUtils.paramNames(originalSql);
-        String sql = NamedParamSqlUtils.toNativeSql(originalSql);
+        String[] paramNames = namedParamSql.getParamNames();
+        String sql = namedParamSql.getNativeSql();
+        PreparedStatementCache statementCache = transaction.get().getStatementCache();
 
         if (SQLMODE_UPDATE.equals(sqlMode)) {
             Output output = new Output();
             Integer count = 0;
             if (paramNames != null && paramNames.length > 0) {
                 Object[] params = getNamedParams(paramNames, attributes, input);
-                count = queryRunner.execute(conn, sql, params);
+                count = statementCache.execute(sql, params);
             } else {
-                count = queryRunner.execute(conn, originalSql);
+                count = statementCache.execute(sql);
             }
             output.put(KEY_RESULT, count);
             return output;
         } else if (SQLMODE_QUERY_ONE.equals(sqlMode)) {
             if (paramNames != null && paramNames.length > 0) {
                 Object[] params = getNamedParams(paramNames, attributes, input);
-                Map<String, Object> result = queryRunner.query(conn, sql, mapHandler, params);
+                Map<String, Object> result = statementCache.query(sql, mapHandler, params);
                 return createQueryOneOutput(result);
             } else {
-                Map<String, Object> result = queryRunner.query(conn, sql, mapHandler);
+                Map<String, Object> result = statementCache.query(sql, mapHandler);
                 return createQueryOneOutput(result);
             }
         } else {
             if (paramNames != null && paramNames.length > 0) {
                 Object[] params = getNamedParams(paramNames, attributes, input);
-                List<List<Map<String, Object>>> resultsList = queryRunner.execute(conn, sql, mapListHandler, params);
+                List<List<Map<String, Object>>> resultsList = statementCache.execute(sql, mapListHandler, params);
                 return createQueryOutput(resultsList);
             } else {
-                List<List<Map<String, Object>>> resultsList = queryRunner.execute(conn, sql, mapListHandler);
+                List<List<Map<String, Object>>> resultsList = statementCache.execute(sql, mapListHandler);
                 return createQueryOutput(resultsList);
             }
         }
@@ -0,0 +1,83 @@
+package io.activedata.xnifi.dbutils;
+
+import org.apache.commons.dbutils.handlers.MapListHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PreparedStatementCacheTests {
+
+    private Connection conn;
+    private PreparedStatementCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        conn = DriverManager.getConnection("jdbc:derby:memory:psc_tests;create=true");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T_PSC (ID int not null primary key, NAME varchar(32))");
+        }
+        cache = new PreparedStatementCache(conn, 2, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("drop table T_PSC");
+        }
+        conn.close();
+    }
+
+    @Test
+    public void testReuseStatement() throws Exception {
+        String sql = "insert into T_PSC (ID, NAME) values (?, ?)";
+        PreparedStatement stmt = cache.prepare(sql);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, cache.update(sql, i, "name" + i));
+        }
+        assertSame(stmt, cache.prepare(sql));
+        assertEquals(1, cache.size());
+
+        Integer count = cache.query("select count(*) from T_PSC where ID >= ?", new ScalarHandler<Integer>(), 0);
+        assertEquals(10, count.intValue());
+
+        List<List<Map<String, Object>>> results = cache.execute("select NAME from T_PSC where ID = ?", new MapListHandler(), 3);
+        assertEquals(1, results.size());
+        assertEquals("name3", results.get(0).get(0).get("NAME"));
+    }
+
+    @Test
+    public void testEvictAndClose() throws Exception {
+        PreparedStatement stmt1 = cache.prepare("select ID from T_PSC where ID = ?");
+        PreparedStatement stmt2 = cache.prepare("select NAME from T_PSC where ID = ?");
+        cache.prepare("select ID, NAME from T_PSC where ID = ?");
+        assertEquals(2, cache.size());
+        assertTrue(stmt1.isClosed());
+        assertFalse(stmt2.isClosed());
+
+        cache.close();
+        assertEquals(0, cache.size());
+        assertTrue(stmt2.isClosed());
+        assertFalse(conn.isClosed());
+    }
+
+    @Test
+    public void testExecuteBatch() throws Exception {
+        String sql = "insert into T_PSC (ID, NAME) values (?, ?)";
+        int[] counts = cache.executeBatch(sql, Arrays.asList(new Object[]{1, "a"}, new Object[]{2, "b"}, new Object[]{3, null}));
+        assertEquals(3, counts.length);
+        assertEquals(2, cache.update("update T_PSC set NAME = ? where ID < ?", "x", 3));
+    }
+}
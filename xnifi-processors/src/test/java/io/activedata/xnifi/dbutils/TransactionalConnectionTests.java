@@ -0,0 +1,82 @@
+package io.activedata.xnifi.dbutils;
+
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.apache.nifi.dbcp.DBCPService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionalConnectionTests {
+    private static final String DB_URL = "jdbc:derby:memory:tx_tests;create=true";
+
+    private DBCPService dbcp;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        try (Connection conn = DriverManager.getConnection(DB_URL); Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T_TX (ID int not null primary key)");
+        }
+        dbcp = mock(DBCPService.class);
+        when(dbcp.getConnection()).thenAnswer(invocation -> DriverManager.getConnection(DB_URL));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Connection conn = DriverManager.getConnection(DB_URL); Statement stmt = conn.createStatement()) {
+            stmt.execute("drop table T_TX");
+        }
+    }
+
+    @Test
+    public void testLazyAcquire() throws Exception {
+        ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+        transaction.begin(dbcp);
+        assertFalse(transaction.get().isAcquired());
+        transaction.commit();
+        transaction.end();
+        verify(dbcp, never()).getConnection();
+    }
+
+    @Test
+    public void testCommitAndRollback() throws Exception {
+        ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+
+        transaction.begin(dbcp);
+        transaction.get().getStatementCache().update("insert into T_TX (ID) values (?)", 1);
+        transaction.get().getStatementCache().update("insert into T_TX (ID) values (?)", 2);
+        assertFalse(transaction.get().getConnection().getAutoCommit());
+        transaction.commit();
+        transaction.end();
+
+        transaction.begin(dbcp);
+        transaction.get().getStatementCache().update("insert into T_TX (ID) values (?)", 3);
+        transaction.rollback();
+        transaction.end();
+
+        verify(dbcp, times(2)).getConnection();
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void testUncommittedRolledBackOnEnd() throws Exception {
+        ThreadBoundTransaction transaction = new ThreadBoundTransaction();
+        transaction.begin(dbcp);
+        transaction.get().getStatementCache().update("insert into T_TX (ID) values (?)", 1);
+        transaction.end();
+        assertEquals(0, count());
+    }
+
+    private int count() throws Exception {
+        try (Connection conn = DriverManager.getConnection(DB_URL); PreparedStatementCache cache = new PreparedStatementCache(conn)) {
+            return cache.query("select count(*) from T_TX", new ScalarHandler<Integer>());
+        }
+    }
+}
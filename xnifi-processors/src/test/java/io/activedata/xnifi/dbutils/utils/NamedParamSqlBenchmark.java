@@ -0,0 +1,82 @@
+package io.activedata.xnifi.dbutils.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比每条记录重新解析命名参数SQL与使用编译后的SQL模板取参数的开销，直接运行main方法执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamedParamSqlBenchmark {
+
+    private static final String SQL = "INSERT INTO T_ORDER(ID, CODE, NAME, AMOUNT, STATUS, CREATE_TIME) VALUES(:id, :code, :name, :amount, :status, :createTime)";
+
+    private Map<String, Object> record;
+    private NamedParamSql namedParamSql;
+
+    @Setup
+    public void setup() {
+        record = new HashMap<>();
+        record.put("id", 1L);
+        record.put("code", "C0001");
+        record.put("name", "name");
+        record.put("amount", 100);
+        record.put("status", "NEW");
+        record.put("createTime", System.currentTimeMillis());
+        namedParamSql = NamedParamSqlUtils.compile(SQL);
+    }
+
+    @Benchmark
+    public void regexPerRecord(Blackhole bh) {
+        String[] paramNames = NamedParamSqlUtils.paramNames(SQL);
+        String sql = NamedParamSqlUtils.toNativeSql(SQL);
+        Object[] params = new Object[paramNames.length];
+        for (int i = 0; i < paramNames.length; i++) {
+            params[i] = record.get(paramNames[i]);
+        }
+        bh.consume(sql);
+        bh.consume(params);
+    }
+
+    @Benchmark
+    public void compiledTemplate(Blackhole bh) {
+        bh.consume(namedParamSql.getNativeSql());
+        bh.consume(namedParamSql.getParams(record::get));
+    }
+
+    @Benchmark
+    public void compiledCacheLookup(Blackhole bh) {
+        NamedParamSql compiled = NamedParamSqlUtils.compile(SQL);
+        bh.consume(compiled.getNativeSql());
+        bh.consume(compiled.getParams(record::get));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(NamedParamSqlBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
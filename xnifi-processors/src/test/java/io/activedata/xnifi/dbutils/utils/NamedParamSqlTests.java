@@ -0,0 +1,52 @@
+package io.activedata.xnifi.dbutils.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NamedParamSqlTests {
+
+    private static final String[] SQLS = {
+            "INSERT INTO XXX VALUES(:p1, :p2, 'p3', ':p4', 'xx:p5', :p6)",
+            "UPDATE T SET NAME = :name, AGE = :age WHERE ID = :id AND (PID = :id OR PID IS NULL)",
+            "SELECT * FROM T WHERE ID IN (:a,:b, :c)",
+            "SELECT * FROM T",
+            ":p0 SELECT"
+    };
+
+    @Test
+    public void testCompileSameAsRegex() {
+        for (String sql : SQLS) {
+            NamedParamSql namedParamSql = NamedParamSqlUtils.compile(sql);
+            assertEquals(sql, namedParamSql.getSql());
+            assertEquals(NamedParamSqlUtils.toNativeSql(sql), namedParamSql.getNativeSql());
+            assertArrayEquals(NamedParamSqlUtils.paramNames(sql), namedParamSql.getParamNames());
+        }
+    }
+
+    @Test
+    public void testCompileCached() {
+        String sql = SQLS[1];
+        assertSame(NamedParamSqlUtils.compile(sql), NamedParamSqlUtils.compile(new String(sql)));
+    }
+
+    @Test
+    public void testParams() {
+        NamedParamSql namedParamSql = NamedParamSqlUtils.compile(SQLS[1]);
+        assertEquals(4, namedParamSql.getParamCount());
+        assertArrayEquals(new int[]{3, 4}, namedParamSql.getParamIndexes("id"));
+        assertArrayEquals(new int[]{1}, namedParamSql.getParamIndexes("name"));
+        assertEquals(0, namedParamSql.getParamIndexes("none").length);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "n");
+        values.put("age", 10);
+        values.put("id", 1L);
+        assertArrayEquals(new Object[]{"n", 10, 1L, 1L}, namedParamSql.getParams(values::get));
+
+        assertFalse(NamedParamSqlUtils.compile(SQLS[3]).hasParams());
+    }
+}
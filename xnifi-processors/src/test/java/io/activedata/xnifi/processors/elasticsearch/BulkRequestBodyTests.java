@@ -0,0 +1,83 @@
+package io.activedata.xnifi.processors.elasticsearch;
+
+import okio.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class BulkRequestBodyTests {
+
+    /**
+     * 测试文档按原始字节写出，多行的ROW被合并为一行
+     */
+    @Test
+    public void testIndex() throws IOException {
+        String json = "[{\"id\": 1,\n  \"name\": \"张三\"},\r\n{\"id\": 2, \"name\": \"a\\nb\"}]";
+        BulkRequestBody body = new BulkRequestBody();
+        body.addAll(new PutElasticsearchOnJson().buildBulkItems(json.getBytes(StandardCharsets.UTF_8), "test", "doc", "index", "id"));
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        String expected = "{\"index\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"1\" }}\n"
+                + "{\"id\": 1,  \"name\": \"张三\"}\n"
+                + "{\"index\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"2\" }}\n"
+                + "{\"id\": 2, \"name\": \"a\\nb\"}\n";
+        Assert.assertEquals(2, body.size());
+        Assert.assertEquals(expected, buffer.readUtf8());
+        Assert.assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, body.contentLength());
+    }
+
+    @Test
+    public void testUpsertAndDelete() throws IOException {
+        byte[] content = "{\"id\": \"x\"}".getBytes(StandardCharsets.UTF_8);
+        PutElasticsearchOnJson processor = new PutElasticsearchOnJson();
+        BulkRequestBody body = new BulkRequestBody();
+        body.addAll(processor.buildBulkItems(content, "test", "doc", "upsert", "id"));
+        body.addAll(processor.buildBulkItems(content, "test", "doc", "delete", "id"));
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        Assert.assertEquals("{\"update\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"x\" }}\n"
+                + "{\"doc\": {\"id\": \"x\"}, \"doc_as_upsert\": true }\n"
+                + "{\"delete\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"x\" }}\n", buffer.readUtf8());
+    }
+
+    /**
+     * 测试fastjson可以解析的非标准JSON，ROW被重新序列化为标准JSON
+     */
+    @Test
+    public void testLenientJson() throws IOException {
+        byte[] content = "[{id:3},{id:5}]".getBytes(StandardCharsets.UTF_8);
+        List<BulkRequestBody.Item> items = new PutElasticsearchOnJson().buildBulkItems(content, "test", "doc", "index", "id");
+        BulkRequestBody body = new BulkRequestBody();
+        body.addAll(items);
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        Assert.assertEquals("{\"index\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"3\" }}\n"
+                + "{\"id\":3}\n"
+                + "{\"index\": { \"_index\": \"test\", \"_type\": \"doc\", \"_id\": \"5\" }}\n"
+                + "{\"id\":5}\n", buffer.readUtf8());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        items.get(0).writeRowTo(out);
+        Assert.assertEquals("{\"id\":3}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 测试命令保留原始ROW，用于把失败的ROW写回FlowFile
+     */
+    @Test
+    public void testWriteRow() throws IOException {
+        byte[] content = "[{\"id\": \"x\",\n \"v\": 1}, {\"id\": \"y\"}]".getBytes(StandardCharsets.UTF_8);
+        List<BulkRequestBody.Item> items = new PutElasticsearchOnJson().buildBulkItems(content, "test", "doc", "delete", "id");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        items.get(1).writeRowTo(out);
+        items.get(0).writeRowTo(out);
+        Assert.assertEquals("{\"id\": \"y\"}{\"id\": \"x\",\n \"v\": 1}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,273 @@
+package io.activedata.xnifi.processors.elasticsearch;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class PutElasticsearchOnJsonTests {
+
+    TestRunner runner;
+    MockPutElasticsearchOnJson processor;
+
+    @Before
+    public void setup() {
+        processor = new MockPutElasticsearchOnJson();
+        runner = newRunner(processor);
+    }
+
+    private static TestRunner newRunner(PutElasticsearchOnJson processor) {
+        TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(PutElasticsearchOnJson.ES_URL, "http://localhost:9200");
+        runner.setProperty(PutElasticsearchOnJson.INDEX, "test");
+        runner.setProperty(PutElasticsearchOnJson.TYPE, "doc");
+        runner.setProperty(PutElasticsearchOnJson.ID_ATTRIBUTE, "id");
+        runner.setProperty(PutElasticsearchOnJson.RETRY_BACKOFF, "1 millis");
+        return runner;
+    }
+
+    /**
+     * 测试每条ROW按各自的结果路由，失败的ROW写入新的FlowFile
+     */
+    @Test
+    public void testMixedItemStatuses() {
+        processor.respond("{\"id\":2}", PutElasticsearchOnJson.REL_FAILURE);
+        runner.enqueue("[{\"id\":1},{\"id\":2},{\"id\":3}]");
+        runner.run();
+
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_FAILURE, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_RETRY, 0);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1},{\"id\":3}]");
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_FAILURE).get(0).assertContentEquals("[{\"id\":2}]");
+        Assert.assertEquals(Collections.singletonList(3), processor.requestSizes);
+    }
+
+    /**
+     * 测试被拒绝的ROW在本次触发内重发，重发成功后整个FlowFile转入成功队列
+     */
+    @Test
+    public void testRetryThenSuccess() {
+        processor.respond("{\"id\":2}", PutElasticsearchOnJson.REJECTED, PutElasticsearchOnJson.REJECTED);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1},{\"id\":2}]");
+        Assert.assertEquals(Arrays.asList(2, 1, 1), processor.requestSizes);
+    }
+
+    /**
+     * 测试重试次数用完后仍被拒绝的ROW写入新的FlowFile转入retry队列
+     */
+    @Test
+    public void testStillRejected() {
+        runner.setProperty(PutElasticsearchOnJson.MAX_RETRIES, "2");
+        processor.respond("{\"id\":2}", PutElasticsearchOnJson.REJECTED, PutElasticsearchOnJson.REJECTED, PutElasticsearchOnJson.REJECTED);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_RETRY, 1);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1}]");
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_RETRY).get(0).assertContentEquals("[{\"id\":2}]");
+        Assert.assertEquals(Arrays.asList(2, 1, 1), processor.requestSizes);
+    }
+
+    /**
+     * 测试其他5xx错误不在处理器内重发，直接转入retry队列
+     */
+    @Test
+    public void testServerErrorNotResent() {
+        processor.respond("{\"id\":1}", PutElasticsearchOnJson.REL_RETRY);
+        processor.respond("{\"id\":2}", PutElasticsearchOnJson.REL_RETRY);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(PutElasticsearchOnJson.REL_RETRY, 1);
+        Assert.assertEquals(Collections.singletonList(2), processor.requestSizes);
+    }
+
+    /**
+     * 测试并发发送拆分后的请求时，结果仍对应回各自的ROW
+     */
+    @Test
+    public void testConcurrentRequests() {
+        runner.setProperty(PutElasticsearchOnJson.MAX_CONCURRENT_REQUESTS, "2");
+        runner.setProperty(PutElasticsearchOnJson.MAX_BULK_ACTIONS, "1");
+        processor.respond("{\"id\":1}", PutElasticsearchOnJson.REJECTED);
+        processor.respond("{\"id\":3}", PutElasticsearchOnJson.REL_FAILURE);
+        runner.enqueue("[{\"id\":1},{\"id\":2},{\"id\":3}]");
+        runner.run();
+
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_FAILURE, 1);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1},{\"id\":2}]");
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_FAILURE).get(0).assertContentEquals("[{\"id\":3}]");
+        Assert.assertEquals(Arrays.asList(1, 1, 1, 1), processor.requestSizes);
+    }
+
+    /**
+     * 测试ES批量接口返回errors=false时所有ROW转入成功队列
+     */
+    @Test
+    public void testBulkResponseNoErrors() {
+        BulkResponsePutElasticsearchOnJson processor = new BulkResponsePutElasticsearchOnJson();
+        processor.respond(200, "{\"took\":30,\"errors\":false,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"status\":201}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"_version\":2,\"result\":\"updated\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"status\":200}}]}");
+        TestRunner runner = newRunner(processor);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1},{\"id\":2}]");
+        Assert.assertEquals(Collections.singletonList(2), processor.requestSizes);
+    }
+
+    /**
+     * 测试单条命令返回409版本冲突时该ROW转入失败队列，不重新发送
+     */
+    @Test
+    public void testBulkResponseItemConflict() {
+        BulkResponsePutElasticsearchOnJson processor = new BulkResponsePutElasticsearchOnJson();
+        processor.respond(200, "{\"took\":5,\"errors\":true,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"status\":201}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\","
+                + "\"reason\":\"[doc][2]: version conflict, current version [3] is higher or equal to the one provided [2]\",\"index_uuid\":\"aAsFqTI0Tc2W0LCWgPNrOA\",\"shard\":\"0\",\"index\":\"test\"}}}]}");
+        TestRunner runner = newRunner(processor);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_FAILURE, 1);
+        runner.assertTransferCount(PutElasticsearchOnJson.REL_RETRY, 0);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1}]");
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_FAILURE).get(0).assertContentEquals("[{\"id\":2}]");
+        Assert.assertEquals(Collections.singletonList(2), processor.requestSizes);
+    }
+
+    /**
+     * 测试单条命令返回429时只重新发送该ROW，重发成功后整个FlowFile转入成功队列
+     */
+    @Test
+    public void testBulkResponseItemRejected() {
+        BulkResponsePutElasticsearchOnJson processor = new BulkResponsePutElasticsearchOnJson();
+        processor.respond(200, "{\"took\":2,\"errors\":true,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"status\":201}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\","
+                + "\"reason\":\"rejected execution of org.elasticsearch.transport.TransportService$7@2fb1e5c8 on EsThreadPoolExecutor[bulk, queue capacity = 200]\"}}}]}");
+        processor.respond(200, "{\"took\":1,\"errors\":false,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"_version\":1,\"result\":\"created\",\"status\":201}}]}");
+        TestRunner runner = newRunner(processor);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        runner.getFlowFilesForRelationship(PutElasticsearchOnJson.REL_SUCCESS).get(0).assertContentEquals("[{\"id\":1},{\"id\":2}]");
+        Assert.assertEquals(Arrays.asList(2, 1), processor.requestSizes);
+    }
+
+    /**
+     * 测试整个请求返回503时重新发送全部ROW
+     */
+    @Test
+    public void testBulkResponseServiceUnavailable() {
+        BulkResponsePutElasticsearchOnJson processor = new BulkResponsePutElasticsearchOnJson();
+        processor.respond(503, "{\"error\":{\"root_cause\":[{\"type\":\"cluster_block_exception\",\"reason\":\"blocked by: [SERVICE_UNAVAILABLE/2/no master];\"}],"
+                + "\"type\":\"cluster_block_exception\",\"reason\":\"blocked by: [SERVICE_UNAVAILABLE/2/no master];\"},\"status\":503}");
+        processor.respond(200, "{\"took\":4,\"errors\":false,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\",\"status\":201}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"_version\":1,\"result\":\"created\",\"status\":201}}]}");
+        TestRunner runner = newRunner(processor);
+        runner.enqueue("[{\"id\":1},{\"id\":2}]");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(PutElasticsearchOnJson.REL_SUCCESS, 1);
+        Assert.assertEquals(Arrays.asList(2, 2), processor.requestSizes);
+    }
+
+    /**
+     * 不连接ES，按顺序返回预设的批量接口HTTP响应，由处理器自己解析响应内容
+     */
+    static class BulkResponsePutElasticsearchOnJson extends PutElasticsearchOnJson {
+        final Deque<Response> responses = new ArrayDeque<>();
+        final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<>());
+
+        void respond(int code, String json) {
+            responses.add(new Response.Builder()
+                    .request(new Request.Builder().url("http://localhost:9200/_bulk").build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(code)
+                    .message(code == 200 ? "OK" : "Service Unavailable")
+                    .body(ResponseBody.create(MediaType.parse("application/json; charset=UTF-8"), json))
+                    .build());
+        }
+
+        @Override
+        protected Response sendRequestToElasticsearch(OkHttpClient client, URL url, String username, String password, String verb, RequestBody body) {
+            requestSizes.add(((BulkRequestBody) body).size());
+            synchronized (responses) {
+                return responses.remove();
+            }
+        }
+    }
+
+    /**
+     * 不发送请求，按ROW内容返回预设的结果，没有预设结果的ROW视为成功
+     */
+    static class MockPutElasticsearchOnJson extends PutElasticsearchOnJson {
+        final Map<String, Deque<Relationship>> responses = new HashMap<>();
+        final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<>());
+
+        void respond(String row, Relationship... outcomes) {
+            responses.computeIfAbsent(row, k -> new ArrayDeque<>()).addAll(Arrays.asList(outcomes));
+        }
+
+        @Override
+        protected Relationship[] executeBulk(OkHttpClient client, URL url, String username, String password, BulkRequestBody body) {
+            requestSizes.add(body.size());
+            Relationship[] outcomes = new Relationship[body.size()];
+            for (int i = 0; i < outcomes.length; i++) {
+                Relationship outcome;
+                synchronized (responses) {
+                    outcome = responses.getOrDefault(readRow(body.getItems().get(i)), new ArrayDeque<>()).poll();
+                }
+                outcomes[i] = outcome == null ? REL_SUCCESS : outcome;
+            }
+            return outcomes;
+        }
+
+        @Override
+        protected CompletableFuture<Relationship[]> executeBulkAsync(OkHttpClient client, URL url, String username, String password, BulkRequestBody body) {
+            return CompletableFuture.supplyAsync(() -> executeBulk(client, url, username, password, body));
+        }
+
+        private static String readRow(BulkRequestBody.Item item) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                item.writeRowTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -128,6 +128,21 @@ public class GraphqlParserTest {
         Assert.assertEquals("1610075413", BeanUtil.silent.getProperty(req, "params.articleid"));
     }
 
+    /**
+     * 测试相同请求体复用缓存的解析结果，变量按每次请求绑定
+     */
+    @Test
+    public void testCachedDocument(){
+        String query = "query articleQuery($articleid: Long) {\\n  article(id: $articleid) {\\n    id\\n  }\\n}";
+        Assert.assertSame(GraphqlParserUtils.parseOperation(query), GraphqlParserUtils.parseOperation(query));
+
+        Map req1 = GraphqlParserUtils.parseRequest(query, "{\"articleid\":\"1\"}");
+        Map req2 = GraphqlParserUtils.parseRequest(query, "{\"articleid\":\"2\"}");
+        Assert.assertEquals("articleQuery", req2.get("name"));
+        Assert.assertEquals("1", BeanUtil.silent.getProperty(req1, "params.articleid"));
+        Assert.assertEquals("2", BeanUtil.silent.getProperty(req2, "params.articleid"));
+    }
+
     @Test
     public void testIllegalRequest(){
         String query = "{userPage(limit:15,offset:0,where:{mobile:的商务分任务同仁堂,username:{like:\"%小%\"}},order:\"reverse:createAt\") {count,limit,rows {id,status,username,mobile,avatar,games,detail {fans,orgs}}}}";
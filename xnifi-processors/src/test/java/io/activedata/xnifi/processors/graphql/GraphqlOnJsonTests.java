@@ -1,15 +1,26 @@
 package io.activedata.xnifi.processors.graphql;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.serialization.MalformedRecordException;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.*;
 
 public class GraphqlOnJsonTests {
 
@@ -78,4 +89,236 @@ public class GraphqlOnJsonTests {
         MockFlowFile mff = flowFiles.get(0);
         System.err.println(new String(mff.toByteArray(), "UTF-8"));
     }
+
+    /**
+     * 测试批量请求返回的数组按顺序拆分到每条记录，包含errors的记录转入失败队列
+     */
+    @Test
+    public void testBatchRequests() {
+        MockGraphqlOnJson processor = newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_BATCH_REQUESTS, "true");
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "10");
+        processor.errorIds.add(2);
+        runner.enqueue("[{id:1},{id:2},{id:3}]");
+        runner.run();
+
+        Assert.assertEquals(1, processor.requests.size());
+        Assert.assertEquals(3, ((JSONArray) processor.requests.get(0)).size());
+        runner.assertTransferCount(GraphqlOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(GraphqlOnJson.REL_FAILURE, 1);
+        assertRows(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_SUCCESS).get(0), 1, 3);
+        JSONArray failures = JSON.parseArray(new String(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_FAILURE).get(0).toByteArray()));
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals(2, failures.getJSONObject(0).getJSONObject("input").getIntValue("id"));
+    }
+
+    /**
+     * 测试请求头不同的记录分别合并为批量请求，结果仍按记录原有顺序输出
+     */
+    @Test
+    public void testBatchRequestsGroupByHeaders() {
+        MockGraphqlOnJson processor = newMockRunner("variables.id = input.id; headers.tenant = input.tenant;");
+        runner.setProperty(GraphqlOnJson.PROP_BATCH_REQUESTS, "true");
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "10");
+        runner.enqueue("[{id:1,tenant:'a'},{id:2,tenant:'b'},{id:3,tenant:'a'},{id:4,tenant:'b'},{id:5,tenant:'a'}]");
+        runner.run();
+
+        Assert.assertEquals(2, processor.requests.size());
+        Map<String, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < processor.requests.size(); i++) {
+            sizes.put(processor.tenants.get(i), ((JSONArray) processor.requests.get(i)).size());
+        }
+        Assert.assertEquals(Integer.valueOf(3), sizes.get("a"));
+        Assert.assertEquals(Integer.valueOf(2), sizes.get("b"));
+        runner.assertAllFlowFilesTransferred(GraphqlOnJson.REL_SUCCESS, 1);
+        assertRows(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_SUCCESS).get(0), 1, 2, 3, 4, 5);
+    }
+
+    /**
+     * 测试服务端对批量请求只返回单个对象时，该组记录全部失败，且不缓存该响应
+     */
+    @Test
+    public void testBatchRequestsNonArrayResponse() {
+        MockGraphqlOnJson processor = newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_BATCH_REQUESTS, "true");
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "10");
+        runner.setProperty(GraphqlOnJson.PROP_CACHE_SIZE, "10");
+        processor.singleResponse = true;
+        runner.enqueue("[{id:1},{id:2}]");
+        runner.enqueue("[{id:1},{id:2}]");
+        runner.run(2);
+
+        Assert.assertEquals(2, processor.requests.size());
+        runner.assertAllFlowFilesTransferred(GraphqlOnJson.REL_FAILURE, 2);
+    }
+
+    /**
+     * 测试并发请求中后发送的请求先返回时，结果仍按记录原有顺序输出
+     */
+    @Test
+    public void testConcurrentRequestsKeepOrder() {
+        MockGraphqlOnJson processor = newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_MAX_CONCURRENT_REQUESTS, "3");
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "3");
+        processor.delays.put(1, 300L);
+        processor.delays.put(2, 150L);
+        runner.enqueue("[{id:1},{id:2},{id:3}]");
+        runner.run();
+
+        Assert.assertEquals(3, processor.requests.size());
+        Assert.assertEquals(Arrays.asList(3, 2, 1), processor.completed);
+        runner.assertAllFlowFilesTransferred(GraphqlOnJson.REL_SUCCESS, 1);
+        assertRows(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_SUCCESS).get(0), 1, 2, 3);
+    }
+
+    /**
+     * 测试variables和缓存键请求头相同的记录命中缓存，包含errors的响应不缓存，命中和未命中次数计入计数器
+     */
+    @Test
+    public void testResponseCache() {
+        MockGraphqlOnJson processor = newMockRunner("variables.id = input.id; headers.tenant = input.tenant;");
+        runner.setProperty(GraphqlOnJson.PROP_CACHE_SIZE, "10");
+        runner.setProperty(GraphqlOnJson.PROP_CACHE_KEY_HEADERS, "tenant");
+        processor.errorIds.add(3);
+        runner.enqueue("[{id:1,tenant:'a'},{id:1,tenant:'a'},{id:1,tenant:'b'},{id:3,tenant:'a'},{id:3,tenant:'a'}]");
+        runner.run();
+
+        Assert.assertEquals(4, processor.requests.size());
+        Assert.assertEquals(Arrays.asList("a", "b", "a", "a"), processor.tenants);
+        runner.assertTransferCount(GraphqlOnJson.REL_SUCCESS, 1);
+        runner.assertTransferCount(GraphqlOnJson.REL_FAILURE, 1);
+        assertRows(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_SUCCESS).get(0), 1, 1, 1);
+        JSONArray failures = JSON.parseArray(new String(runner.getFlowFilesForRelationship(GraphqlOnJson.REL_FAILURE).get(0).toByteArray()));
+        Assert.assertEquals(2, failures.size());
+        Assert.assertEquals(Long.valueOf(1), runner.getCounterValue("GraphQL Cache Hits"));
+        Assert.assertEquals(Long.valueOf(4), runner.getCounterValue("GraphQL Cache Misses"));
+    }
+
+    /**
+     * 测试批量处理记录数小于最大并发请求数时配置无效
+     */
+    @Test
+    public void testChunkSizeLessThanConcurrency() {
+        newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_MAX_CONCURRENT_REQUESTS, "4");
+        runner.assertNotValid();
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "4");
+        runner.assertValid();
+    }
+
+    /**
+     * 测试开启批量请求但批量处理记录数为1时配置无效
+     */
+    @Test
+    public void testBatchRequestsNeedChunkSize() {
+        newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_BATCH_REQUESTS, "true");
+        runner.assertNotValid();
+        runner.setProperty(GraphqlOnJson.PROP_RECORD_CHUNK_SIZE, "10");
+        runner.assertValid();
+    }
+
+    /**
+     * 测试开启缓存时有效期为0的配置无效
+     */
+    @Test
+    public void testZeroCacheTtl() {
+        newMockRunner("variables.id = input.id;");
+        runner.setProperty(GraphqlOnJson.PROP_CACHE_TTL, "0 secs");
+        runner.assertValid();
+        runner.setProperty(GraphqlOnJson.PROP_CACHE_SIZE, "10");
+        runner.assertNotValid();
+    }
+
+    private MockGraphqlOnJson newMockRunner(String variablesBuilder) {
+        MockGraphqlOnJson processor = new MockGraphqlOnJson();
+        runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(GraphqlOnJson.PROP_GRAPHQL_URL, "http://localhost:8088/graphql");
+        runner.setProperty(GraphqlOnJson.PROP_GRAPHQL_PAYLOAD, "query ($id: Long) { ad(id: $id) { id } }");
+        runner.setProperty(GraphqlOnJson.PROP_GRAPHQL_VARIABLES_BUILDER, variablesBuilder);
+        return processor;
+    }
+
+    /**
+     * 校验输出的每条记录与其响应对应，且按指定的id顺序排列
+     */
+    private static void assertRows(MockFlowFile flowFile, int... ids) {
+        JSONArray rows = JSON.parseArray(new String(flowFile.toByteArray()));
+        Assert.assertEquals(ids.length, rows.size());
+        for (int i = 0; i < ids.length; i++) {
+            JSONObject row = rows.getJSONObject(i);
+            Assert.assertEquals(ids[i], row.getIntValue("id"));
+            Assert.assertEquals(ids[i], row.getJSONObject("data").getJSONObject("ad").getIntValue("id"));
+        }
+    }
+
+    /**
+     * 不连接GraphQL服务，由拦截器按请求中的variables.id返回响应，可为单个请求设置延迟以模拟乱序返回
+     */
+    static class MockGraphqlOnJson extends GraphqlOnJson {
+        final List<Object> requests = Collections.synchronizedList(new ArrayList<>());
+        final List<String> tenants = Collections.synchronizedList(new ArrayList<>());
+        final Set<Integer> errorIds = new HashSet<>();
+        final Map<Integer, Long> delays = new HashMap<>();
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean singleResponse;
+
+        @Override
+        protected OkHttpClient createHttpClient(ProcessContext context) {
+            return super.createHttpClient(context).newBuilder().addInterceptor(chain -> {
+                Request request = chain.request();
+                Buffer buffer = new Buffer();
+                request.body().writeTo(buffer);
+                Object body = JSON.parse(buffer.readUtf8());
+                requests.add(body);
+                tenants.add(request.header("tenant"));
+
+                Object result;
+                if (singleResponse) {
+                    result = respond(0);
+                } else if (body instanceof JSONArray) {
+                    JSONArray results = new JSONArray();
+                    for (Object item : (JSONArray) body) {
+                        results.add(respond(((JSONObject) item).getJSONObject("variables").getIntValue("id")));
+                    }
+                    result = results;
+                } else {
+                    int id = ((JSONObject) body).getJSONObject("variables").getIntValue("id");
+                    Long delay = delays.get(id);
+                    if (delay != null) {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    result = respond(id);
+                    completed.add(id);
+                }
+                return new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .body(ResponseBody.create(GraphqlClient.JSON_UTF8, JSON.toJSONString(result)))
+                        .build();
+            }).build();
+        }
+
+        private JSONObject respond(int id) {
+            JSONObject response = new JSONObject();
+            if (errorIds.contains(id)) {
+                JSONObject error = new JSONObject();
+                error.put("message", "ad " + id + " not found");
+                response.put("errors", Collections.singletonList(error));
+            } else {
+                JSONObject ad = new JSONObject();
+                ad.put("id", id);
+                JSONObject data = new JSONObject();
+                data.put("ad", ad);
+                response.put("data", data);
+            }
+            return response;
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package io.activedata.xnifi.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExpiringLruCacheTests {
+
+    private static class ManualClockCache extends ExpiringLruCache<String, String> {
+        long now = 1000L;
+
+        ManualClockCache(int maxSize, long ttlMillis) {
+            super(maxSize, ttlMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testExpire() {
+        ManualClockCache cache = new ManualClockCache(10, 100);
+        cache.put("a", "1");
+        cache.now += 99;
+        assertEquals("1", cache.get("a"));
+        cache.now += 1;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ManualClockCache cache = new ManualClockCache(2, 100);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+}
@@ -0,0 +1,52 @@
+package io.activedata.xnifi2.core.sql;
+
+import io.activedata.xnifi2.core.processors.sql.BatchSqlProcessor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+public class BatchSqlProcessorTests {
+    private static final String DB_URL = "jdbc:derby:memory:batch_sql_tests;create=true";
+
+    TestRunner runner;
+
+    @Before
+    public void setup() throws InitializationException {
+        runner = TestRunners.newTestRunner(BatchSqlProcessor.class);
+        DerbyDBCPService dbcpService = new DerbyDBCPService();
+        runner.addControllerService("dbcp", dbcpService);
+        runner.enableControllerService(dbcpService);
+        runner.setProperty(BatchSqlProcessor.PROP_DBCP_SERVICE, "dbcp");
+        runner.setProperty(BatchSqlProcessor.PROP_SQL, "select 1 from SYSIBM.SYSDUMMY1");
+    }
+
+    /**
+     * 测试未声明并行处理属性的处理器可以正常调度
+     */
+    @Test
+    public void testSchedule() {
+        runner.assertValid();
+        runner.run();
+        runner.assertTransferCount(BatchSqlProcessor.REL_SUCCESS, 0);
+    }
+
+    static class DerbyDBCPService extends AbstractControllerService implements DBCPService {
+        @Override
+        public Connection getConnection() throws ProcessException {
+            try {
+                return DriverManager.getConnection(DB_URL);
+            } catch (SQLException e) {
+                throw new ProcessException(e);
+            }
+        }
+    }
+}